@@ -1,26 +1,47 @@
 package com.tks.mqoviewert;
 
+import android.content.res.AssetFileDescriptor;
+import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.graphics.Typeface;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
-import android.opengl.GLUtils;
 import android.opengl.Matrix;
+import android.os.Handler;
 import android.os.SystemClock;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.util.TypedValue;
+import android.view.Gravity;
 import android.view.MotionEvent;
 import android.view.View;
+import android.view.ViewConfiguration;
 import android.view.ViewGroup.LayoutParams;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
+import android.widget.FrameLayout;
 import android.widget.Spinner;
+import android.widget.TextView;
 
-import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.FloatBuffer;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -34,6 +55,27 @@ public class MQOViewerTActivity extends AppCompatActivity implements GLSurfaceVi
 
     final int FSIZE = Float.SIZE / Byte.SIZE; // floatのバイト数
 
+    // 頂点シェーダで、圧縮した座標と法線を戻す関数(COMPRESSEDを定義した場合)
+    private static final String DECODE_SOURCE =
+        "#ifdef COMPRESSED\n" +
+        "uniform vec3 u_PositionScale;\n" +
+        "uniform vec3 u_PositionBias;\n" +
+        "vec4 decodePosition(vec4 p) {\n" +
+        "  return vec4(p.xyz * u_PositionScale + u_PositionBias, 1.0);\n" +
+        "}\n" +
+        "vec4 decodeNormal(vec4 e) {\n" +
+        "  vec3 n = vec3(e.xy, 1.0 - abs(e.x) - abs(e.y));\n" +
+        "  if (n.z < 0.0) {\n" +
+        "    vec2 s = vec2(n.x >= 0.0 ? 1.0 : -1.0, n.y >= 0.0 ? 1.0 : -1.0);\n" +
+        "    n.xy = (1.0 - abs(n.yx)) * s;\n" +
+        "  }\n" +
+        "  return vec4(n, 1.0);\n" +
+        "}\n" +
+        "#else\n" +
+        "vec4 decodePosition(vec4 p) { return p; }\n" +
+        "vec4 decodeNormal(vec4 n) { return n; }\n" +
+        "#endif\n";
+
     // 頂点シェーダのプログラム
     private static final String VSHADER_SOURCE =
         "attribute vec4 a_Position;\n" +
@@ -42,10 +84,11 @@ public class MQOViewerTActivity extends AppCompatActivity implements GLSurfaceVi
         "uniform mat4 u_MvpMatrix;\n" +
         "uniform mat4 u_NormalMatrix;\n" +
         "varying vec4 v_Color;\n" +
+        DECODE_SOURCE +
         "void main() {\n" +
         "  vec3 lightDirection = vec3(-0.35, 0.35, 0.87);\n" +
-        "  gl_Position = u_MvpMatrix * a_Position;\n" +
-        "  vec3 normal = normalize(vec3(u_NormalMatrix * a_Normal));\n" +
+        "  gl_Position = u_MvpMatrix * decodePosition(a_Position);\n" +
+        "  vec3 normal = normalize(vec3(u_NormalMatrix * decodeNormal(a_Normal)));\n" +
         "  float nDotL = max(dot(normal, lightDirection), 0.0);\n" +
         "  v_Color = vec4(a_Color.rgb * nDotL, a_Color.a);\n" +
         "}\n";
@@ -70,10 +113,11 @@ public class MQOViewerTActivity extends AppCompatActivity implements GLSurfaceVi
         "uniform mat4 u_NormalMatrix;\n" +
         "varying vec4 v_Color;\n" +
         "varying vec2 v_TexCoord;\n" +
+        DECODE_SOURCE +
         "void main() {\n" +
         "  vec3 lightDirection = vec3(-0.35, 0.35, 0.87);\n" +
-        "  gl_Position = u_MvpMatrix * a_Position;\n" +
-        "  vec3 normal = normalize(vec3(u_NormalMatrix * a_Normal));\n" +
+        "  gl_Position = u_MvpMatrix * decodePosition(a_Position);\n" +
+        "  vec3 normal = normalize(vec3(u_NormalMatrix * decodeNormal(a_Normal)));\n" +
         "  float nDotL = max(dot(normal, lightDirection), 0.0);\n" +
         "  v_Color = vec4(a_Color.rgb * nDotL, a_Color.a);\n" +
         "  v_TexCoord = a_TexCoord;\n" +
@@ -92,6 +136,8 @@ public class MQOViewerTActivity extends AppCompatActivity implements GLSurfaceVi
         "}\n";
 
     private static float ANGLE_STEP = 30;   // 回転角の増分(度)
+    private static final float Z_NEAR = 1.0f;      // 視点から手前のクリップ面までの距離
+    private static final float Z_FAR = 5000.0f;    // 視点から奥のクリップ面までの距離
 
     // メンバー変数
     private GLSurfaceView mGLSurfaceView; // 描画領域
@@ -103,13 +149,72 @@ public class MQOViewerTActivity extends AppCompatActivity implements GLSurfaceVi
     private float[] mViewProjMatrix = new float[16];
     private float[] mMvpMatrix = new float[16];
     private float[] mNormalMatrix = new float[16];
+    private final Frustum mFrustum = new Frustum(); // モデル座標系での視錐台(回転が変わった時に求める)
+    private MeshBVH mBVH;               // 表示中のモデルの面を探すためのBVH(読み込み後か最初のタップの後に別スレッドで作る。GLスレッドからのみ触る)
+    private LoadTask mShownTask;        // 表示中のモデルを読み込んだタスク(GLスレッドからのみ触る)
+    private SavedModel mSavedModel;     // Objectごとに表示し始めたモデルの前のモデル(読み込みが終わるまで持っておく。GLスレッドからのみ触る)
+    private MeshBVH.Hit mPicked;        // 最後にタップで選んだ面(なければnull)
+    private final float[] mPickMatrix = new float[16];
+    private final float[] mPickPoint = new float[8];
+    private volatile int mDrawnBatches;     // 直前のフレームで描画した描画情報の数
+    private volatile int mCulledBatches;    // 直前のフレームで視錐台の外にあったので描画しなかった描画情報の数
+    private final RenderQueue mRenderQueue = new RenderQueue();    // 描画する順に並べ替える(フレームごとに積み直す)
+    private volatile int mStateChanges;     // 直前のフレームでのシェーダとテクスチャの切り替え回数
+    private volatile int mUnsortedStateChanges; // 直前のフレームを並べ替えずに描画した場合の切り替え回数
+    private float mProjScale;           // 投影行列のy方向の倍率(1 / tan(視野角 / 2))
+    private float[] mObjectSizes = new float[0];    // Objectごとの、画面上の大きさ(ピクセル、フレームごとに求める)
+    private float[] mInvMatrix = new float[16];
+    private boolean mMatricesValid = false;    // mModelMatrix～mFrustumが下の値で計算済みか(GLスレッドからのみ触る)
+    private float mMatrixAngle;         // 計算した時の回転角
+    private float mMatrixTouchAngleX;   // 計算した時のタッチ操作の回転角
+    private float mMatrixTouchAngleY;
+    private int mMatrixItem;            // 計算した時のモデルの番号
 
     // モデル描画情報
-    private GLBuff mGLBuff;
-    private ArrayList<MQODoc.DrawingInfo> mDrawingInfos = new ArrayList<MQODoc.DrawingInfo>();
+    private ArrayList<GLBuff> mGLBuffs = new ArrayList<GLBuff>();  // mDrawingInfosごとのバッファオブジェクト(同じ並び)
+    private TextureManager mTextureManager; // テクスチャオブジェクトの管理
+    private File mBaseDir;  // 読み込んだモデルのあるディレクトリ(アセットならnull)
+    private static final String ASSET_PREFIX = "asset:";   // アセットのテクスチャのパスの前に付ける
+    private MQOCache mMQOCache;     // 描画情報のキャッシュ
+    private static final boolean WELD_VERTICES = true;  // 同じ頂点をまとめてインデックスで共有する
+    private static final boolean INTERLEAVED_VERTICES = true;  // 頂点の属性を詰めて1つのバッファに並べる
+    private static final boolean COMPRESS_VERTICES = false;    // さらに座標と法線を圧縮する(INTERLEAVED_VERTICESの場合のみ)
+    private static final boolean OPTIMIZE_VERTEX_CACHE = true; // 三角形を頂点キャッシュに当たりやすい順に並べ替える
+    private static final boolean PROGRESSIVE_LOADING = true;   // Objectを解析し終わるたびに表示していく(Objectごとに別の描画情報になる)
+    private static final boolean RENDER_ON_DEMAND = true;      // 表示が変わる時(自動回転、タッチ操作、読み込み)だけ描画する
+    private static final float[] LOD_RATIOS = {0.5f, 0.25f};   // 詳細度を下げたモデルの面の数の割合(nullなら作らない)
+    private static final float[] LOD_SCREEN_SIZES = {300.0f, 150.0f};  // 画面上の大きさ(ピクセル)がこれより小さければ次の詳細度にする
+    private static final boolean DEBUG_TIMINGS = BuildConfig.DEBUG;    // 読み込みと描画の時間(p50、p95、p99、最大)を画面に重ねて表示する(デバッグビルドのみ)
+    private static final boolean DUMP_TIMINGS = false;     // 一時停止した時に時間のレポート(timings.csv、timings.json)をアプリのファイル領域に書き出す
+    private static final long TIMINGS_UPDATE_INTERVAL = 500;   // 重ねて表示する時間を更新する間隔(ミリ秒)
+    // 時間を計る段階(Timingsの番号)
+    private static final int PHASE_READ = 0;       // ファイルのマップ、ハッシュ、キャッシュの読み込み
+    private static final int PHASE_PARSE = 1;      // MQODoc.parse()(描画情報を作る時間は除く)
+    private static final int PHASE_BUILD = 2;      // 描画情報を作る(MQODoc.getDrawingInfos())
+    private static final int PHASE_DECODE = 3;     // テクスチャの画像1枚のデコード(BitmapFactory)
+    private static final int PHASE_UPLOAD = 4;     // 描画情報をバッファオブジェクトとテクスチャに転送する
+    private static final int PHASE_FRAME = 5;      // onDrawFrame()
+    private static final int PHASE_INTERVAL = 6;   // onDrawFrame()が呼ばれる間隔
+    private final Timings mTimings = new Timings("read", "parse", "build", "decode", "upload", "frame", "interval");
+    private long mLastFrameStart = 0;  // 前のonDrawFrame()の開始時刻(ナノ秒、GLスレッドからのみ触る)
+    private TextView mTimingsView;     // 時間を重ねて表示するビュー(DEBUG_TIMINGSの場合のみ)
+    private final Handler mHandler = new Handler();
+    private final Runnable mUpdateTimings = new Runnable() {
+        @Override
+        public void run() {
+            mTimingsView.setText(mTimings.summary());
+            mHandler.postDelayed(this, TIMINGS_UPDATE_INTERVAL);
+        }
+    };
+    private volatile boolean mUintIndexSupported = false;   // 32ビットのインデックスで描画できるか(GL_OES_element_index_uint)
+    private final CountDownLatch mGLCapsKnown = new CountDownLatch(1);  // mUintIndexSupportedが決まったか(読み込みはこれを待つ)
+    private List<MQODoc.DrawingInfo> mDrawingInfos = Collections.emptyList();   // 表示中のモデル(GLスレッドに渡した後は変更しない)
+    private final ExecutorService mLoadExecutor = Executors.newSingleThreadExecutor();  // モデルを読み込むスレッド
+    private LoadTask mLoadTask;     // 最後に始めた読み込み(UIスレッドからのみ触る)
 
     private float mCurrentAngle;
     private long mLast; // 最後に呼び出された時刻
+    private boolean mAnimating = false; // 直前のフレームで自動回転していたか(GLスレッドからのみ触る)
 
     public class GLShader {
         public int program;
@@ -120,6 +225,8 @@ public class MQOViewerTActivity extends AppCompatActivity implements GLSurfaceVi
         public int u_MvpMatrix;
         public int u_NormalMatrix;
         public int u_Sampler;
+        public int u_PositionScale;     // 圧縮した座標を戻す倍率(圧縮しない場合は-1)
+        public int u_PositionBias;      // 圧縮した座標を戻すずれ(圧縮しない場合は-1)
 
         public GLShader(int program) {
             this.program = program;
@@ -130,16 +237,24 @@ public class MQOViewerTActivity extends AppCompatActivity implements GLSurfaceVi
             this.u_MvpMatrix = -1;
             this.u_NormalMatrix = -1;
             this.u_Sampler = -1;
+            this.u_PositionScale = -1;
+            this.u_PositionBias = -1;
         }
     }
 
+    // 描画情報1つ分のバッファオブジェクト(モデルを読み込んだ時に1回だけ書き込む)
     public class GLBuff {
-        public int vertexBuffId;
+        public int vertexBuffId;    // 詰めて並べた場合は全属性がここに入る
         public int normalBuffId;
         public int colorBuffId;
         public int uvBuffId;
         public int indexBuffId;
+        public int indexType;   // GL_UNSIGNED_SHORTかGL_UNSIGNED_INT
+        public int indexCount;  // インデックス数
+        public InterleavedVertices layout;  // 詰めて並べた場合の並び方(属性ごとのバッファならnull)
         public int texId;
+        public String texturePath;  // TextureManagerに登録したテクスチャのパス(なければnull)
+        public boolean translucent; // 色のアルファが1未満の頂点があるか(半透明の描画情報は最後に奥から描画する)
 
         public GLBuff() {
             vertexBuffId = 0;
@@ -147,18 +262,50 @@ public class MQOViewerTActivity extends AppCompatActivity implements GLSurfaceVi
             colorBuffId = 0;
             uvBuffId = 0;
             indexBuffId = 0;
+            indexType = GLES20.GL_UNSIGNED_SHORT;
+            indexCount = 0;
+            layout = null;
             texId = 0;
+            texturePath = null;
+            translucent = false;
         }
     }
 
+    // Objectごとの表示を始める前に表示していたモデル(新しいモデルの読み込みが中断されたら元に戻す)
+    private class SavedModel {
+        public List<MQODoc.DrawingInfo> drawingInfos;
+        public ArrayList<GLBuff> glBuffs;   // GLコンテキストが作り直されたらnull(戻す時に転送し直す)
+        public File baseDir;
+        public int selectedItem;
+        public LoadTask shownTask;
+        public MeshBVH bvh;
+        public int loadStatus;
+    }
+
     private float mLastX,mLastY;
+    private float mDownX,mDownY;    // タップかドラッグかの判定用
     private float[] mTouchAngle = {0f,0f};
     @Override
     public boolean onTouchEvent(MotionEvent event) {
         switch(event.getAction()) {
             case MotionEvent.ACTION_DOWN:
-                mLastX = event.getX();
-                mLastY = event.getY();
+                mLastX = mDownX = event.getX();
+                mLastY = mDownY = event.getY();
+                return true;
+            case MotionEvent.ACTION_UP:
+                {
+                float slop = ViewConfiguration.get(this).getScaledTouchSlop();
+                final float x = event.getX();
+                final float y = event.getY();
+                if (Math.abs(x - mDownX) <= slop && Math.abs(y - mDownY) <= slop) {  // 動かさずに離したらタップ
+                    mGLSurfaceView.queueEvent(new Runnable() {
+                        @Override
+                        public void run() {
+                            pick(x, y);
+                        }
+                    });
+                }
+                }
                 return true;
             case MotionEvent.ACTION_MOVE:
                 {
@@ -170,20 +317,30 @@ public class MQOViewerTActivity extends AppCompatActivity implements GLSurfaceVi
                 mLastX = event.getX();
                 mLastY = event.getY();
                 }
+                mGLSurfaceView.requestRender();     // 回転が変わった
                 return true;
         }
         return super.onTouchEvent(event);
     }
 
-    int mSelectedItem = 0;
+    int mSelectedItem = 0;  // 表示中のモデルの番号(GLスレッドからのみ触る)
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         mGLSurfaceView = new GLSurfaceView(this);
         mGLSurfaceView.setEGLContextClientVersion(2);
         mGLSurfaceView.setRenderer(this);
+        if (RENDER_ON_DEMAND) mGLSurfaceView.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
         setContentView(mGLSurfaceView);
 
+        mMQOCache = new MQOCache(new File(getCacheDir(), "mqo"));
+        mTextureManager = new TextureManager(new TextureManager.Loader() {
+            @Override
+            public Bitmap load(String path) throws IOException {
+                return loadTexture(path);
+            }
+        });
+
         /* スピナー生成 */
         Spinner spinner = new Spinner(this);
         ArrayAdapter<String> adapter = new ArrayAdapter<String>(this, android.R.layout.simple_spinner_item);
@@ -195,15 +352,11 @@ public class MQOViewerTActivity extends AppCompatActivity implements GLSurfaceVi
         spinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
             @Override
             public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
-                mLoadStatus = 0;
-                mSelectedItem = position;
-                final String item = (String)((Spinner)parent).getSelectedItem();
-                mGLSurfaceView.queueEvent(new Runnable() {
-                    @Override
-                    public void run() {
-                        readFile(item);
-                    }
-                });
+                // 読み込みは別スレッドで行い、読み終わるまでは前のモデルを表示しておく
+                String item = (String)((Spinner)parent).getSelectedItem();
+                if (mLoadTask != null) mLoadTask.cancel();  // 読み込み中のモデルは要らなくなった
+                mLoadTask = new LoadTask(item, position);
+                mLoadExecutor.execute(mLoadTask);
             }
 
             @Override
@@ -211,6 +364,34 @@ public class MQOViewerTActivity extends AppCompatActivity implements GLSurfaceVi
             }
         });
         addContentView(spinner, new LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT));
+
+        if (DEBUG_TIMINGS) {
+            mTimingsView = new TextView(this);
+            mTimingsView.setTextColor(Color.WHITE);
+            mTimingsView.setTypeface(Typeface.MONOSPACE);
+            mTimingsView.setTextSize(TypedValue.COMPLEX_UNIT_SP, 10);
+            addContentView(mTimingsView, new FrameLayout.LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT, Gravity.BOTTOM));
+        }
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        if (DEBUG_TIMINGS) mHandler.post(mUpdateTimings);
+    }
+
+    @Override
+    protected void onPause() {
+        if (DEBUG_TIMINGS) mHandler.removeCallbacks(mUpdateTimings);
+        if (DUMP_TIMINGS) dumpTimings();
+        super.onPause();
+    }
+
+    @Override
+    protected void onDestroy() {
+        if (mLoadTask != null) mLoadTask.cancel();
+        mLoadExecutor.shutdownNow();
+        super.onDestroy();
     }
 
     /**
@@ -221,7 +402,8 @@ public class MQOViewerTActivity extends AppCompatActivity implements GLSurfaceVi
 
     @Override
     public void onSurfaceCreated(GL10 gl, EGLConfig config) {
-        mGLShader = new GLShader(Utils.initShaders(VSHADER_SOURCE, FSHADER_SOURCE));     // シェーダを初期化する
+        String defines = COMPRESS_VERTICES && INTERLEAVED_VERTICES ? "#define COMPRESSED\n" : "";
+        mGLShader = new GLShader(Utils.initShaders(defines + VSHADER_SOURCE, FSHADER_SOURCE));     // シェーダを初期化する
         mGLShader.a_Position    = GLES20.glGetAttribLocation(mGLShader.program, "a_Position");
         mGLShader.a_Normal      = GLES20.glGetAttribLocation(mGLShader.program, "a_Normal");
         mGLShader.a_Color       = GLES20.glGetAttribLocation(mGLShader.program, "a_Color");
@@ -229,12 +411,14 @@ public class MQOViewerTActivity extends AppCompatActivity implements GLSurfaceVi
         mGLShader.u_MvpMatrix   = GLES20.glGetUniformLocation(mGLShader.program, "u_MvpMatrix");
         mGLShader.u_NormalMatrix= GLES20.glGetUniformLocation(mGLShader.program, "u_NormalMatrix");
         mGLShader.u_Sampler     = -1;
+        mGLShader.u_PositionScale = GLES20.glGetUniformLocation(mGLShader.program, "u_PositionScale");
+        mGLShader.u_PositionBias  = GLES20.glGetUniformLocation(mGLShader.program, "u_PositionBias");
         if (mGLShader.a_Position == -1 || mGLShader.a_Normal == -1 || mGLShader.a_Color == -1 ||
             mGLShader.u_MvpMatrix == -1 || mGLShader.u_NormalMatrix == -1) {
             throw new RuntimeException("attribute, uniform変数の格納場所の取得に失敗");
         }
 
-        mTexGLShader = new GLShader(Utils.initShaders(TEX_VSHADER_SOURCE, TEX_FSHADER_SOURCE));     // シェーダを初期化する
+        mTexGLShader = new GLShader(Utils.initShaders(defines + TEX_VSHADER_SOURCE, TEX_FSHADER_SOURCE));     // シェーダを初期化する
         mTexGLShader.a_Position     = GLES20.glGetAttribLocation(mTexGLShader.program, "a_Position");
         mTexGLShader.a_Normal       = GLES20.glGetAttribLocation(mTexGLShader.program, "a_Normal");
         mTexGLShader.a_Color        = GLES20.glGetAttribLocation(mTexGLShader.program, "a_Color");
@@ -242,158 +426,767 @@ public class MQOViewerTActivity extends AppCompatActivity implements GLSurfaceVi
         mTexGLShader.u_MvpMatrix    = GLES20.glGetUniformLocation(mTexGLShader.program, "u_MvpMatrix");
         mTexGLShader.u_NormalMatrix = GLES20.glGetUniformLocation(mTexGLShader.program, "u_NormalMatrix");
         mTexGLShader.u_Sampler      = GLES20.glGetUniformLocation(mTexGLShader.program, "u_Sampler");
+        mTexGLShader.u_PositionScale= GLES20.glGetUniformLocation(mTexGLShader.program, "u_PositionScale");
+        mTexGLShader.u_PositionBias = GLES20.glGetUniformLocation(mTexGLShader.program, "u_PositionBias");
         if (mTexGLShader.a_Position == -1 || mTexGLShader.a_Normal == -1 || mTexGLShader.a_Color == -1 || mTexGLShader.a_TexCoord == -1 ||
             mTexGLShader.u_MvpMatrix== -1 || mTexGLShader.u_NormalMatrix == -1 || mTexGLShader.u_Sampler == -1) {
             throw new RuntimeException("attribute, uniform変数の格納場所の取得に失敗");
         }
 
+        // 32ビットのインデックスが使えなければ、65536頂点ごとに分割して描画する
+        String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+        mUintIndexSupported = extensions != null && extensions.contains("GL_OES_element_index_uint");
+        mGLCapsKnown.countDown();
+
         // クリアカラーを設定し、デプステストを有効にする
         GLES20.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
         GLES20.glEnable(GLES20.GL_DEPTH_TEST);
 
-        // 頂点座標と色、法線用の空のバッファオブジェクトを用意する
-        mGLBuff = new GLBuff();
-        int[] buffer = new int[5];
-        GLES20.glGenBuffers(5, buffer, 0);
-        mGLBuff.vertexBuffId  = buffer[0];
-        mGLBuff.normalBuffId  = buffer[1];
-        mGLBuff.colorBuffId   = buffer[2];
-        mGLBuff.uvBuffId      = buffer[3];
-        mGLBuff.indexBuffId   = buffer[4];
-
-        // テクスチャオブジェクトを作成する
-        int[] texture = new int[1];
-        GLES20.glGenTextures(1, texture, 0);
-        mGLBuff.texId = texture[0];
+        // テクスチャユニット0を有効にする
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+
+        // コンテキストが作り直された場合は、前のバッファオブジェクトとテクスチャは消えているので読み込み済みのモデルを書き込み直す
+        mTextureManager.onContextLost();
+        mGLBuffs.clear();
+        if (mSavedModel != null) mSavedModel.glBuffs = null;
+        if (mLoadStatus != 0) uploadDrawingInfos(null);
 
         mCurrentAngle = 0.0f; // 現在の回転角 [degree]
 
         mLast = SystemClock.uptimeMillis();
+        mLastFrameStart = 0;    // 作り直すまでの間はフレームの間隔に数えない
+        mMatricesValid = false;
     }
 
+    int mWidth;
     int mHeight;
     @Override
     public void onSurfaceChanged(GL10 gl, int width, int height) {
+        mWidth = width;
         mHeight = height;
         GLES20.glViewport(0, 0, width, height);     // 表示領域を設定する
 
         // ビュー投影行列を計算
         float[] projMatrix = new float[16];
         float[] viewMatrix = new float[16];
-        Utils.setPerspectiveM(projMatrix, 0, 30.0, (double)width / (double)height, 1.0, 5000.0);
+        MathUtils.setPerspectiveM(projMatrix, 0, 30.0, (double)width / (double)height, Z_NEAR, Z_FAR);
+        mProjScale = projMatrix[5];
         Matrix.setLookAtM(viewMatrix, 0, 0.0f, 250.0f, 1000.0f, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f);
         Matrix.multiplyMM(mViewProjMatrix, 0, projMatrix, 0, viewMatrix, 0);
+        mMatricesValid = false;
     }
 
-    int mLoadStatus = 0;
+    int mLoadStatus = 0;    // モデルを表示できるか(GLスレッドからのみ触る)
     @Override
     public void onDrawFrame(GL10 gl) {
-        if(mLoadStatus == 0) return;
+        long start = System.nanoTime();
+        if (mLastFrameStart != 0) mTimings.record(PHASE_INTERVAL, start - mLastFrameStart);
+        drawFrame();
+        mTimings.record(PHASE_FRAME, System.nanoTime() - start);
+
+        // 自動回転中は次のフレームも描画する(止まっている間は、タッチ操作か読み込みで表示が変わるまで描画しない)
+        boolean continuous = !RENDER_ON_DEMAND || mAnimating;
+        if (RENDER_ON_DEMAND && mAnimating) mGLSurfaceView.requestRender();
+        mLastFrameStart = continuous ? start : 0;   // 止まっていた間はフレームの間隔に数えない
+    }
+
+    // 1フレーム分を描画する
+    private void drawFrame() {
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);  // カラーバッファとデプスバッファをクリア
+        if(mLoadStatus == 0) {
+            mAnimating = false;
+            return;
+        }
+
+        // タッチ操作で回すモデル以外は自動で回転させる
+        boolean animating = mSelectedItem != 2;
+        if (animating && !mAnimating) mLast = SystemClock.uptimeMillis();  // 止まっていた間は回さない
+        mAnimating = animating;
+        if (animating) mCurrentAngle = animate(mCurrentAngle); // 回転角度を更新する
+        if (!mMatricesValid || mMatrixAngle != mCurrentAngle || mMatrixItem != mSelectedItem
+                || mMatrixTouchAngleX != mTouchAngle[0] || mMatrixTouchAngleY != mTouchAngle[1]) {
+            // 回転が変わった時だけ行列と視錐台を計算し直す
+            mMatrixAngle = mCurrentAngle;
+            mMatrixItem = mSelectedItem;
+            mMatrixTouchAngleX = mTouchAngle[0];
+            mMatrixTouchAngleY = mTouchAngle[1];
+            calcCordinate(mMatrixAngle, mViewProjMatrix);
+            mFrustum.set(mMvpMatrix);
+            mMatricesValid = true;
+        }
+        if (LOD_RATIOS != null) calcObjectSizes();
+        int drawn = 0;
+        int culled = 0;
+        float[] m = mMvpMatrix;
+        mRenderQueue.clear();
+        for(int lpct = 0; lpct < mGLBuffs.size(); lpct++) {
+            MQODoc.DrawingInfo drawinginfo = mDrawingInfos.get(lpct);
+            GLBuff glBuff = mGLBuffs.get(lpct);
+            if (LOD_RATIOS != null && drawinginfo.object >= 0 && drawinginfo.lod != selectLod(mObjectSizes[drawinginfo.object]))
+                continue;   // このフレームでは別の詳細度を描画する
+            if (drawinginfo.bounds != null && !mFrustum.intersects(drawinginfo.bounds)) {
+                culled++;   // 画面の外なので描画しない
+                continue;
+            }
+            drawn++;
 
-        mCurrentAngle = animate(mCurrentAngle); // 回転角度を更新する
-        for(int lpct = 0; lpct < mDrawingInfos.size(); lpct++) {
+            // 奥行きは包む球の中心の、視点からの距離
+            float depth = 0.0f;
+            if (drawinginfo.bounds != null && !drawinginfo.bounds.isEmpty()) {
+                float[] c = drawinginfo.bounds.center;
+                float w = m[3] * c[0] + m[7] * c[1] + m[11] * c[2] + m[15];
+                depth = (w - Z_NEAR) / (Z_FAR - Z_NEAR);
+            }
+            boolean textured = drawinginfo.texture != null;
+            mRenderQueue.add(lpct, textured ? 1 : 0, textured ? glBuff.texId & (RenderQueue.MAX_TEXTURES - 1) : 0, depth, glBuff.translucent);
+        }
+        mRenderQueue.sort();
+
+        // 並べ替えた順に描画する(シェーダとテクスチャは変わった時だけ切り替える)
+        GLShader current = null;
+        int boundTexId = -1;
+        boolean blending = false;
+        for (int i = 0; i < mRenderQueue.size(); i++) {
+            int lpct = mRenderQueue.getIndex(i);
             MQODoc.DrawingInfo drawinginfo = mDrawingInfos.get(lpct);
+            GLBuff glBuff = mGLBuffs.get(lpct);
+
+            if (mRenderQueue.isTranslucent(i) && !blending) {
+                // ここからは半透明(奥から重ね、デプスバッファは書き換えない)
+                blending = true;
+                GLES20.glEnable(GLES20.GL_BLEND);
+                GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+                GLES20.glDepthMask(false);
+            }
 
             GLShader shader = drawinginfo.texture != null ? mTexGLShader : mGLShader;
-            GLES20.glUseProgram(shader.program);
-            GLES20.glUniform1i(shader.u_Sampler, 0);
+            if (shader != current) {
+                current = shader;
+                GLES20.glUseProgram(shader.program);
+                GLES20.glUniform1i(shader.u_Sampler, 0);
+                setMatrices(shader);
+            }
 
-            // 頂点
-            FloatBuffer vertexs = Utils.makeFloatBuffer(drawinginfo.vertices);
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mGLBuff.vertexBuffId);
-            GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, FSIZE * vertexs.limit(), vertexs, GLES20.GL_STATIC_DRAW);
-            GLES20.glVertexAttribPointer(shader.a_Position, 3, GLES20.GL_FLOAT, false, 0, 0);  // attribute変数にバッファオブジェクトを割り当てる
-            GLES20.glEnableVertexAttribArray(shader.a_Position);  // 割り当てを有効にする
+            setAttributes(shader, glBuff, drawinginfo.texture != null);
+            if (drawinginfo.texture != null && glBuff.texId != boundTexId) {
+                boundTexId = glBuff.texId;
+                GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, glBuff.texId);   // テクスチャ設定
+            }
+
+            GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, glBuff.indexBuffId);
+
+            // 描画
+            GLES20.glDrawElements(GLES20.GL_TRIANGLES, glBuff.indexCount, glBuff.indexType, 0);
+        }
+        if (blending) {
+            GLES20.glDepthMask(true);
+            GLES20.glDisable(GLES20.GL_BLEND);
+        }
+        mStateChanges = mRenderQueue.getStateChanges();
+        mUnsortedStateChanges = mRenderQueue.getUnsortedStateChanges();
+        mDrawnBatches = drawn;
+        mCulledBatches = culled;
+    }
 
+    // Objectごとの画面上の大きさ(詳細度0の描画情報を包む球の直径、ピクセル)を求める
+    private void calcObjectSizes() {
+        int numObjects = 0;
+        for (int i = 0; i < mDrawingInfos.size(); i++)
+            numObjects = Math.max(numObjects, mDrawingInfos.get(i).object + 1);
+        if (mObjectSizes.length < numObjects) mObjectSizes = new float[numObjects];
+        Arrays.fill(mObjectSizes, 0.0f);
+
+        float[] m = mMvpMatrix;
+        for (int i = 0; i < mDrawingInfos.size(); i++) {
+            MQODoc.DrawingInfo drawinginfo = mDrawingInfos.get(i);
+            BoundingVolume bounds = drawinginfo.bounds;
+            if (drawinginfo.object < 0 || drawinginfo.lod != 0 || bounds == null || bounds.isEmpty()) continue;
+            float[] c = bounds.center;
+            float w = m[3] * c[0] + m[7] * c[1] + m[11] * c[2] + m[15];     // 視点からの奥行き
+            float size = w > bounds.radius ? bounds.radius * mProjScale * mHeight / w : Float.MAX_VALUE;   // 近すぎれば一番細かく
+            mObjectSizes[drawinginfo.object] = Math.max(mObjectSizes[drawinginfo.object], size);
+        }
+    }
+
+    // 画面上の大きさ(ピクセル)から詳細度を選ぶ
+    private static int selectLod(float size) {
+        int lod = 0;
+        while (lod < LOD_SCREEN_SIZES.length && size < LOD_SCREEN_SIZES[lod]) lod++;
+        return lod;
+    }
+
+    // 読み込みと描画の段階ごとの時間(PHASE_～の番号。p50、p95、p99、最大はTimingHistogramで求める)
+    public Timings getTimings() {
+        return mTimings;
+    }
+
+    // 時間のレポートをアプリのファイル領域に書き出す(timings.csv、timings.json)
+    private void dumpTimings() {
+        try {
+            Writer writer = new FileWriter(new File(getFilesDir(), "timings.csv"));
+            try {
+                mTimings.writeCsv(writer);
+            } finally {
+                writer.close();
+            }
+            writer = new FileWriter(new File(getFilesDir(), "timings.json"));
+            try {
+                mTimings.writeJson(writer);
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // 直前のフレームで描画した描画情報の数
+    public int getDrawnBatches() {
+        return mDrawnBatches;
+    }
+
+    // 直前のフレームで視錐台カリングにより描画しなかった描画情報の数
+    public int getCulledBatches() {
+        return mCulledBatches;
+    }
+
+    // 直前のフレームでのシェーダ、テクスチャの切り替えと半透明の描画の開始の回数
+    public int getStateChanges() {
+        return mStateChanges;
+    }
+
+    // 直前のフレームを並べ替えずに描画した場合の切り替え回数(比較用)
+    public int getUnsortedStateChanges() {
+        return mUnsortedStateChanges;
+    }
+
+    // attribute変数にバッファオブジェクトを割り当てる
+    private void setAttributes(GLShader shader, GLBuff glBuff, boolean textured) {
+        InterleavedVertices layout = glBuff.layout;
+        if (layout != null) {
+            // 1つのバッファに詰めて並べた頂点(並び方に合わせて割り当てる)
+            int stride = layout.stride;
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, glBuff.vertexBuffId);
+            GLES20.glVertexAttribPointer(shader.a_Position, 3, layout.positionType, layout.positionType != GLES20.GL_FLOAT, stride, layout.positionOffset);
+            GLES20.glVertexAttribPointer(shader.a_Normal, layout.normalSize, layout.normalType, true, stride, layout.normalOffset);
+            GLES20.glVertexAttribPointer(shader.a_Color, 4, GLES20.GL_UNSIGNED_BYTE, true, stride, layout.colorOffset);
+            if (textured)
+                GLES20.glVertexAttribPointer(shader.a_TexCoord, 2, layout.uvType, layout.uvType != GLES20.GL_FLOAT, stride, layout.uvOffset);
+            if (layout.compressed) {    // 座標を戻すための値
+                GLES20.glUniform3fv(shader.u_PositionScale, 1, layout.positionScale, 0);
+                GLES20.glUniform3fv(shader.u_PositionBias, 1, layout.positionBias, 0);
+            }
+        } else {
+            // 頂点
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, glBuff.vertexBuffId);
+            GLES20.glVertexAttribPointer(shader.a_Position, 3, GLES20.GL_FLOAT, false, 0, 0);
             // 法線
-            FloatBuffer normals = Utils.makeFloatBuffer(drawinginfo.normals);
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mGLBuff.normalBuffId);
-            GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, FSIZE * normals.limit(), normals, GLES20.GL_STATIC_DRAW);
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, glBuff.normalBuffId);
             GLES20.glVertexAttribPointer(shader.a_Normal, 3, GLES20.GL_FLOAT, false, 0, 0);
-            GLES20.glEnableVertexAttribArray(shader.a_Normal);
-
             // カラー
-            FloatBuffer colors = Utils.makeFloatBuffer(drawinginfo.colors);
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mGLBuff.colorBuffId);
-            GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, FSIZE * colors.limit(), colors, GLES20.GL_STATIC_DRAW);
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, glBuff.colorBuffId);
             GLES20.glVertexAttribPointer(shader.a_Color, 4, GLES20.GL_FLOAT, false, 0, 0);
-            GLES20.glEnableVertexAttribArray(shader.a_Color);
-
-            if (drawinginfo.texture != null) {
-                /* UV設定 */
-                FloatBuffer uvs = Utils.makeFloatBuffer(drawinginfo.uvs);
-                GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mGLBuff.uvBuffId);
-                GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, FSIZE * uvs.limit(), uvs, GLES20.GL_STATIC_DRAW);
+            // UV
+            if (textured) {
+                GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, glBuff.uvBuffId);
                 GLES20.glVertexAttribPointer(shader.a_TexCoord, 2, GLES20.GL_FLOAT, false, 0, 0);
-                GLES20.glEnableVertexAttribArray(shader.a_TexCoord);
-                /* テクスチャ画像設定 */
-                GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mGLBuff.texId);
-                GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, drawinginfo.image, 0);
             }
+        }
+        // 割り当てを有効にする
+        GLES20.glEnableVertexAttribArray(shader.a_Position);
+        GLES20.glEnableVertexAttribArray(shader.a_Normal);
+        GLES20.glEnableVertexAttribArray(shader.a_Color);
+        if (textured) GLES20.glEnableVertexAttribArray(shader.a_TexCoord);
+    }
 
-            // インデックスをバッファオブジェクトに書き込む
-            GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mGLBuff.indexBuffId);
-            GLES20.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, 2 * drawinginfo.indices.length, Utils.makeShortBuffer(drawinginfo.indices), GLES20.GL_STATIC_DRAW);
+    // 全部の描画情報をバッファオブジェクトに書き込む(bitmapsは読み込んでおいたテクスチャの画像。なければnull)
+    private void uploadDrawingInfos(Map<String, Bitmap> bitmaps) {
+        long start = System.nanoTime();
+        for(int lpct = 0; lpct < mDrawingInfos.size(); lpct++)
+            mGLBuffs.add(uploadDrawingInfo(mDrawingInfos.get(lpct), bitmaps));
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+        mTimings.record(PHASE_UPLOAD, System.nanoTime() - start);
+    }
 
-            calcCordinate(shader, mCurrentAngle, mViewProjMatrix);
-            // 描画
-            GLES20.glDrawElements(GLES20.GL_TRIANGLES, drawinginfo.indices.length, GLES20.GL_UNSIGNED_SHORT, 0);
+    // 描画情報1つ分のバッファオブジェクトを作って書き込む
+    private GLBuff uploadDrawingInfo(MQODoc.DrawingInfo drawinginfo, Map<String, Bitmap> bitmaps) {
+        GLBuff glBuff = new GLBuff();
+        if (drawinginfo.texture != null) {
+            glBuff.texturePath = getTexturePath(mBaseDir, drawinginfo.texture);
+            glBuff.texId = mTextureManager.acquire(glBuff.texturePath, bitmaps != null ? bitmaps.remove(glBuff.texturePath) : null);
+        }
+
+        if (INTERLEAVED_VERTICES) {
+            // 全属性を詰めて1つのバッファに並べる
+            int[] buffer = new int[2];
+            GLES20.glGenBuffers(2, buffer, 0);
+            glBuff.vertexBuffId  = buffer[0];
+            glBuff.indexBuffId   = buffer[1];
+
+            InterleavedVertices interleaved = InterleavedVertices.pack(drawinginfo, COMPRESS_VERTICES);
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, glBuff.vertexBuffId);
+            GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, interleaved.buffer.capacity(), interleaved.buffer, GLES20.GL_STATIC_DRAW);
+            interleaved.buffer = null;  // 転送したら要らない
+            glBuff.layout = interleaved;
+        } else {
+            int[] buffer = new int[5];
+            GLES20.glGenBuffers(5, buffer, 0);
+            glBuff.vertexBuffId  = buffer[0];
+            glBuff.normalBuffId  = buffer[1];
+            glBuff.colorBuffId   = buffer[2];
+            glBuff.uvBuffId      = buffer[3];
+            glBuff.indexBuffId   = buffer[4];
+
+            uploadFloats(glBuff.vertexBuffId, drawinginfo.vertices);
+            uploadFloats(glBuff.normalBuffId, drawinginfo.normals);
+            uploadFloats(glBuff.colorBuffId, drawinginfo.colors);
+            uploadFloats(glBuff.uvBuffId, drawinginfo.uvs);
+        }
+
+        // インデックス(65536頂点以下なら16ビット、超えていれば32ビット)
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, glBuff.indexBuffId);
+        if (drawinginfo.vertices.length / 3 <= MQODoc.MAX_SHORT_INDEX_VERTICES) {
+            GLES20.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, 2 * drawinginfo.indices.length, BufferUtils.makeShortBuffer(drawinginfo.indices), GLES20.GL_STATIC_DRAW);
+            glBuff.indexType = GLES20.GL_UNSIGNED_SHORT;
+        } else {
+            GLES20.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, 4 * drawinginfo.indices.length, BufferUtils.makeIntBuffer(drawinginfo.indices), GLES20.GL_STATIC_DRAW);
+            glBuff.indexType = GLES20.GL_UNSIGNED_INT;
+        }
+        glBuff.indexCount = drawinginfo.indices.length;
+        for (int i = 3; i < drawinginfo.colors.length && !glBuff.translucent; i += 4)
+            glBuff.translucent = drawinginfo.colors[i] < 1.0f;
+        return glBuff;
+    }
+
+    private void uploadFloats(int buffId, float[] array) {
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffId);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, FSIZE * array.length, BufferUtils.makeFloatBuffer(array), GLES20.GL_STATIC_DRAW);
+    }
+
+    // バッファオブジェクトを削除し、テクスチャの参照を解放する
+    private void releaseGLBuffs(ArrayList<GLBuff> glBuffs) {
+        int[] buffer = new int[5];
+        for(int lpct = 0; lpct < glBuffs.size(); lpct++) {
+            GLBuff glBuff = glBuffs.get(lpct);
+            buffer[0] = glBuff.vertexBuffId;
+            buffer[1] = glBuff.normalBuffId;
+            buffer[2] = glBuff.colorBuffId;
+            buffer[3] = glBuff.uvBuffId;
+            buffer[4] = glBuff.indexBuffId;
+            GLES20.glDeleteBuffers(5, buffer, 0);   // 0は無視される
+            if (glBuff.texturePath != null) mTextureManager.release(glBuff.texturePath);
+        }
+        glBuffs.clear();
+    }
+
+    // テクスチャの画像のパス(モデルと同じ場所にあればそのファイル、なければアセット)
+    private String getTexturePath(File baseDir, String texture) {
+        File textureFile = baseDir != null ? new File(baseDir, texture) : null;
+        if (textureFile != null && textureFile.isFile()) return textureFile.getPath();
+        return ASSET_PREFIX + texture;
+    }
+
+    // テクスチャの画像を読み込む(TextureManagerから呼ばれる)
+    private Bitmap loadTexture(String path) throws IOException {
+        if (!path.startsWith(ASSET_PREFIX)) return BitmapFactory.decodeFile(path);
+
+        InputStream inputStream = getAssets().open(path.substring(ASSET_PREFIX.length()));
+        try {
+            return BitmapFactory.decodeStream(inputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    //------------------------------------------------------------------------------
+    // モデルを別スレッドで読み込むタスク
+    // 読み終わったらGLスレッドに渡し、GLスレッドではバッファオブジェクトとテクスチャへの転送だけを行う
+    //------------------------------------------------------------------------------
+    private class LoadTask implements Runnable, MQODoc.OnObjectListener {
+        private final String mFileName;
+        private final int mPosition;    // スピナーで選ばれた番号
+        private final MQODoc mMQODoc = new MQODoc();    // 解析中に中断できるように持っておく
+        private volatile boolean mCancelled = false;
+        private File mBaseDir;
+        private int mNumPublished = 0;  // onObject()でGLスレッドに渡した回数
+        private File mFile;             // モデルファイル(アセットならnull)
+        private boolean mFromCache = false; // キャッシュから読み込んだので面がない(GLスレッドに渡す前に設定する)
+        private boolean mBVHRequested = false;  // 最初のタップでBVHを作り始めたか(GLスレッドからのみ触る)
+        private volatile MQODoc mBVHDoc;        // BVHを作るために解析中のMQODoc(中断できるように持っておく)
+
+        public LoadTask(String fileName, int position) {
+            mFileName = fileName;
+            mPosition = position;
+        }
+
+        // 読み込みを中断する(まだGLスレッドに渡していなければ、表示も切り替えない)
+        public void cancel() {
+            mCancelled = true;
+            mMQODoc.cancel();
+            MQODoc bvhDoc = mBVHDoc;
+            if (bvhDoc != null) bvhDoc.cancel();    // 次のモデルの読み込みを待たせない
+            mGLSurfaceView.queueEvent(new Runnable() {
+                @Override
+                public void run() {
+                    if (mShownTask == LoadTask.this && mSavedModel != null) restoreSavedModel();   // Objectの途中まで表示していた
+                }
+            });
         }
+
+        @Override
+        public void run() {
+            // 描画情報の分け方とキャッシュの種類はGLの機能で決まるので、サーフェスができるまで待つ
+            try {
+                mGLCapsKnown.await();
+            } catch (InterruptedException e) {
+                return;     // 終了した
+            }
+            if (mCancelled) return;
+            File file = findModelFile(mFileName);
+            final File baseDir = file != null ? file.getParentFile() : null;
+            mBaseDir = baseDir;
+            mFile = file;
+            if (PROGRESSIVE_LOADING) mMQODoc.setOnObjectListener(this);
+            List<MQODoc.DrawingInfo> drawingInfos = readFile(mFileName, file, mMQODoc);
+            mFromCache = mMQODoc.getObjects() == null;
+            if (drawingInfos == null || mNumPublished == 0) {   // Objectごとに渡していなければ、まとめて渡す
+                final HashMap<String, Bitmap> bitmaps = new HashMap<String, Bitmap>();
+                if (drawingInfos != null) decodeTextures(drawingInfos, baseDir, bitmaps);
+                if (mCancelled) {
+                    recycleBitmaps(bitmaps);
+                    return;
+                }
+
+                final List<MQODoc.DrawingInfo> result = drawingInfos != null ? Collections.unmodifiableList(drawingInfos) : null;
+                mGLSurfaceView.queueEvent(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mCancelled) {   // 渡す前に別のモデルが選ばれた
+                            recycleBitmaps(bitmaps);
+                            return;
+                        }
+                        mSelectedItem = mPosition;
+                        mShownTask = LoadTask.this;
+                        onRead(result, baseDir, bitmaps);
+                    }
+                });
+            }
+            if (drawingInfos == null || mCancelled) return;
+            if (mNumPublished > 0) {
+                // 全部のObjectを渡し終わったので、前のモデルはもう要らない
+                mGLSurfaceView.queueEvent(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mShownTask == LoadTask.this) dropSavedModel();   // この後にcancel()されても、読み終わったので戻さない
+                    }
+                });
+            }
+            if (mFromCache) return;     // キャッシュから読み込んだ場合は最初のタップで作る
+
+            // 解析した面があれば、表示を始めてから、タップした面を探すためのBVHを作る
+            final MeshBVH bvh = new MeshBVH(mMQODoc.getObjects());
+            if (mCancelled) return;
+            mGLSurfaceView.queueEvent(new Runnable() {
+                @Override
+                public void run() {
+                    if (mShownTask == LoadTask.this) mBVH = bvh;     // 読み終わった後にcancel()されても、表示中ならこのモデルのもの
+                }
+            });
+        }
+
+        // 解析し終わったObjectを、残りのObjectの解析を待たずにGLスレッドに渡す
+        @Override
+        public void onObject(int index, List<MQODoc.DrawingInfo> drawingInfos) {
+            if (mCancelled) return;
+            final HashMap<String, Bitmap> bitmaps = new HashMap<String, Bitmap>();
+            decodeTextures(drawingInfos, mBaseDir, bitmaps);
+
+            final boolean first = (mNumPublished++ == 0);
+            final File baseDir = mBaseDir;
+            final List<MQODoc.DrawingInfo> result = Collections.unmodifiableList(drawingInfos);
+            mGLSurfaceView.queueEvent(new Runnable() {
+                @Override
+                public void run() {
+                    if (mCancelled) {
+                        recycleBitmaps(bitmaps);
+                        return;
+                    }
+                    if (first) {
+                        saveShownModel();   // 読み込みが終わるまでは、中断されたら戻せるようにしておく
+                        mSelectedItem = mPosition;
+                        mShownTask = LoadTask.this;
+                    }
+                    onReadObject(result, baseDir, bitmaps, first);
+                }
+            });
+        }
+
+        /**
+         * キャッシュから読み込んだモデルのBVHを、ファイルを解析し直して作る(GLスレッドから呼び出すこと)
+         * 作り終わったらBVHを設定し、タップした点をもう一度探す
+         */
+        public void requestBVH(final float x, final float y) {
+            if (!mFromCache || mBVHRequested) return;
+            mBVHRequested = true;
+            mLoadExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // mMQODocにはObjectごとに表示するリスナーが付いているので別に解析し、cancel()で中断できるようにしておく
+                    MQODoc mqoDoc = new MQODoc();
+                    mBVHDoc = mqoDoc;
+                    if (mCancelled) return;     // mBVHDocを設定する前にcancel()された
+                    final MeshBVH bvh = buildBVH(mFileName, mFile, mqoDoc);
+                    mBVHDoc = null;
+                    if (bvh == null || mCancelled) return;
+                    mGLSurfaceView.queueEvent(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (mShownTask != LoadTask.this || mBVH != null) return;    // 別のモデルに切り替わった
+                            mBVH = bvh;
+                            pick(x, y);
+                        }
+                    });
+                }
+            });
+        }
+    }
+
+    // モデルファイルを読み込み、描画情報を作る(読み込めないか中断された場合はnull)
+    private List<MQODoc.DrawingInfo> readFile(String fileName, File file, MQODoc mqoDoc) {
+        // 描画情報の作り方(変えたらキャッシュを作り直す)
+        int maxVertices = mUintIndexSupported ? Integer.MAX_VALUE : MQODoc.MAX_SHORT_INDEX_VERTICES;
+        int cacheOptions = MQOCache.options(WELD_VERTICES, mUintIndexSupported, PROGRESSIVE_LOADING, OPTIMIZE_VERTEX_CACHE, LOD_RATIOS);
+
+        ArrayList<MQODoc.DrawingInfo> drawingInfos = null;
+        try {
+            // ストレージのファイルと非圧縮のアセットはメモリマップする(圧縮されたアセットはnull)
+            long start = System.nanoTime();
+            ByteBuffer source = file != null ? mapFile(file) : mapAsset(fileName);
+            byte[] hash = source != null ? MQOCache.hash(source) : hashAsset(fileName);
+
+            drawingInfos = mMQOCache.read(fileName, hash, cacheOptions);  // 前回の結果があればそれを使う
+            mTimings.record(PHASE_READ, System.nanoTime() - start);
+            if (drawingInfos == null) {
+                mqoDoc.setWeldVertices(WELD_VERTICES);
+                mqoDoc.setMaxVerticesPerBatch(maxVertices);
+                mqoDoc.setOptimizeVertexCache(OPTIMIZE_VERTEX_CACHE);
+                if (LOD_RATIOS != null) mqoDoc.setLodRatios(LOD_RATIOS);
+                boolean result = source != null ? mqoDoc.parse(source) : parseAsset(mqoDoc, fileName);
+                if (result) {
+                    // MQOファイル内の頂点座標、法線、色情報の取得
+                    drawingInfos = mqoDoc.getDrawingInfos();
+                }
+                if (drawingInfos != null) {
+                    mTimings.record(PHASE_PARSE, mqoDoc.getParseNanos());
+                    mTimings.record(PHASE_BUILD, mqoDoc.getBuildNanos());
+                    try {
+                        mMQOCache.write(fileName, hash, cacheOptions, drawingInfos);
+                    } catch (IOException e) {
+                        e.printStackTrace();    // キャッシュに書けなくても表示はできる
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return drawingInfos;
     }
 
-    private void readFile(String fileName) {
-        String fileString = "";
+    // モデルファイルを解析して面からBVHを作る(キャッシュから描画情報を読み込んで面がない場合に使う)
+    private MeshBVH buildBVH(String fileName, File file, MQODoc mqoDoc) {
         try {
-            fileString = toStringFromAssetFile(fileName);
+            ByteBuffer source = file != null ? mapFile(file) : mapAsset(fileName);
+            boolean result = source != null ? mqoDoc.parse(source) : parseAsset(mqoDoc, fileName);
+            if (!result) return null;
         } catch (IOException e) {
             e.printStackTrace();
+            return null;
+        }
+        return new MeshBVH(mqoDoc.getObjects());
+    }
+
+    // まだテクスチャになっていない画像を読み込んでおく
+    private void decodeTextures(List<MQODoc.DrawingInfo> drawingInfos, File baseDir, Map<String, Bitmap> bitmaps) {
+        for (int i = 0; i < drawingInfos.size(); i++) {
+            String texture = drawingInfos.get(i).texture;
+            if (texture == null) continue;
+            String path = getTexturePath(baseDir, texture);
+            if (bitmaps.containsKey(path) || mTextureManager.contains(path)) continue;
+            try {
+                long start = System.nanoTime();
+                Bitmap bitmap = loadTexture(path);
+                mTimings.record(PHASE_DECODE, System.nanoTime() - start);
+                if (bitmap != null) bitmaps.put(path, bitmap);
+            } catch (IOException e) {
+                e.printStackTrace();    // GLスレッドでもう一度読み込みを試す
+            }
         }
+    }
 
-        onRead(fileString);
+    private static void recycleBitmaps(Map<String, Bitmap> bitmaps) {
+        for (Bitmap bitmap : bitmaps.values()) bitmap.recycle();
+        bitmaps.clear();
+    }
+
+    // アプリのストレージに置かれたモデルファイルを探す(なければnull)
+    private File findModelFile(String fileName) {
+        File[] dirs = { getFilesDir(), getExternalFilesDir(null) };
+        for (File dir : dirs) {
+            if (dir == null) continue;
+            File file = new File(dir, fileName);
+            if (file.isFile()) return file;
+        }
+        return null;
+    }
+
+    // ファイルをメモリマップする
+    private ByteBuffer mapFile(File file) throws IOException {
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            FileChannel channel = inputStream.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            inputStream.close();  // マップした領域はクローズ後も有効
+        }
+    }
+
+    // アセットをメモリマップする(圧縮されていてマップできなければnull)
+    private ByteBuffer mapAsset(String fileName) throws IOException {
+        AssetFileDescriptor fd;
+        try {
+            fd = getAssets().openFd(fileName);
+        } catch (FileNotFoundException e) {
+            return null;    // 圧縮されたアセットはopenFdできない
+        }
+
+        FileInputStream inputStream = fd.createInputStream();
+        try {
+            FileChannel channel = inputStream.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), fd.getLength());
+        } finally {
+            inputStream.close();
+            fd.close();
+        }
+    }
+
+    // 圧縮されたアセットのハッシュを求める
+    private byte[] hashAsset(String fileName) throws IOException {
+        InputStream inputStream = getAssets().open(fileName);
+        try {
+            return MQOCache.hash(inputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    // 圧縮されたアセットのMQOファイルを、ストリームから読み込みながら解析する
+    private boolean parseAsset(MQODoc mqoDoc, String fileName) throws IOException {
+        InputStream inputStream = getAssets().open(fileName);
+        try {
+            return mqoDoc.parse(inputStream);
+        } finally {
+            inputStream.close();
+        }
     }
 
     // MQOファイルが読み込まれた
-    private void onRead(String fileString) {
-        MQODoc mqoDoc = new MQODoc();  // MQODocオブジェクトの作成
-        boolean result = mqoDoc.parse(fileString); // ファイルの解析
-        if (!result) {
-            mDrawingInfos.clear();
+    private void onRead(List<MQODoc.DrawingInfo> drawingInfos, File baseDir, Map<String, Bitmap> bitmaps) {
+        dropSavedModel();
+        ArrayList<GLBuff> oldGLBuffs = mGLBuffs;
+        mGLBuffs = new ArrayList<GLBuff>();
+        if (drawingInfos == null) {
+            releaseGLBuffs(oldGLBuffs);
+            recycleBitmaps(bitmaps);
+            mDrawingInfos = Collections.emptyList();
+            mBVH = null;
+            mPicked = null;
+            mGLSurfaceView.requestRender();     // 前のモデルを消す
             return;
         }
 
-        // MQOファイル内の頂点座標、法線、色情報の取得
-        mDrawingInfos = mqoDoc.getDrawingInfos();
+        mDrawingInfos = drawingInfos;
+        mBaseDir = baseDir;
+        mBVH = null;    // 新しいモデルのBVHは後から届く(キャッシュから読み込んだ場合は最初のタップで作る)
+        mPicked = null;
+        uploadDrawingInfos(bitmaps);    // 前のモデルと同じテクスチャは転送し直さずに使い回す
+        releaseGLBuffs(oldGLBuffs);     // 前のモデルのバッファオブジェクトを削除する
+        recycleBitmaps(bitmaps);        // 使わなかった画像
 
-        // プログラム切り替える際に色々設定解除した方が良いでんすかねぇ...
+        mLoadStatus = 1;
+        mGLSurfaceView.requestRender();
+    }
 
-        boolean isTexFlg = false;
-        for(int lpct = 0; lpct < mDrawingInfos.size(); lpct++) {
-            MQODoc.DrawingInfo drawinginfo = mDrawingInfos.get(lpct);
-            if(drawinginfo.texture == null) continue;
-            // 画像オブジェクトを作成する
-            try {
-                drawinginfo.image = BitmapFactory.decodeStream(getAssets().open(drawinginfo.texture));
-            } catch (IOException e) {
-                throw new RuntimeException();
-            }
-            isTexFlg = true;
-        }
-        if(isTexFlg) {
-            // テクスチャユニット0を有効にする
-            GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-            // テクスチャオブジェクトをバインドする
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mGLBuff.texId);
-            // テクスチャパラメータを設定する
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+    // MQOファイルのObjectが1つ読み込まれた(firstなら、saveShownModel()で前のモデルを退避した後に呼び出す)
+    private void onReadObject(List<MQODoc.DrawingInfo> drawingInfos, File baseDir, Map<String, Bitmap> bitmaps, boolean first) {
+        long start = System.nanoTime();
+        ArrayList<MQODoc.DrawingInfo> newDrawingInfos = new ArrayList<MQODoc.DrawingInfo>();
+        if (first) {
+            mBaseDir = baseDir;
+            mBVH = null;    // 新しいモデルのBVHは全部のObjectが届いた後に届く
+            mPicked = null;
+        } else {
+            newDrawingInfos.addAll(mDrawingInfos);
         }
+        for (int i = 0; i < drawingInfos.size(); i++)
+            mGLBuffs.add(uploadDrawingInfo(drawingInfos.get(i), bitmaps));  // 前のモデルと同じテクスチャは転送し直さずに使い回す
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+        mTimings.record(PHASE_UPLOAD, System.nanoTime() - start);
+        recycleBitmaps(bitmaps);
 
+        newDrawingInfos.addAll(drawingInfos);
+        mDrawingInfos = Collections.unmodifiableList(newDrawingInfos);  // 描画中のリストは変更せずに差し替える
         mLoadStatus = 1;
+        mGLSurfaceView.requestRender();
     }
 
-    // 描画関数
-    private void calcCordinate(GLShader program, float angle, float[] viewProjMatrix) {
-        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);  // カラーバッファとデプスバッファをクリア
+    // 表示中のモデルを退避して、何も表示していない状態にする(バッファオブジェクトとテクスチャは削除しない)
+    private void saveShownModel() {
+        dropSavedModel();
+        SavedModel saved = new SavedModel();
+        saved.drawingInfos = mDrawingInfos;
+        saved.glBuffs = mGLBuffs;
+        saved.baseDir = mBaseDir;
+        saved.selectedItem = mSelectedItem;
+        saved.shownTask = mShownTask;
+        saved.bvh = mBVH;
+        saved.loadStatus = mLoadStatus;
+        mSavedModel = saved;
+        mDrawingInfos = Collections.emptyList();
+        mGLBuffs = new ArrayList<GLBuff>();
+    }
+
+    // 読み込みが中断されたので、途中まで表示していたモデルを削除して退避したモデルに戻す
+    private void restoreSavedModel() {
+        SavedModel saved = mSavedModel;
+        mSavedModel = null;
+        releaseGLBuffs(mGLBuffs);
+        mDrawingInfos = saved.drawingInfos;
+        mBaseDir = saved.baseDir;
+        mSelectedItem = saved.selectedItem;
+        mShownTask = saved.shownTask;
+        mBVH = saved.bvh;
+        mPicked = null;
+        mLoadStatus = saved.loadStatus;
+        if (saved.glBuffs != null) {
+            mGLBuffs = saved.glBuffs;
+        } else {
+            mGLBuffs = new ArrayList<GLBuff>();     // 退避している間にGLコンテキストが作り直された
+            if (mLoadStatus != 0) uploadDrawingInfos(null);
+        }
+        mGLSurfaceView.requestRender();
+    }
+
+    // 退避したモデルのバッファオブジェクトを削除し、テクスチャの参照を解放する
+    private void dropSavedModel() {
+        if (mSavedModel == null) return;
+        if (mSavedModel.glBuffs != null) releaseGLBuffs(mSavedModel.glBuffs);
+        mSavedModel = null;
+    }
 
+    // モデル行列、法線の変換行列、モデルビュー投影行列を計算する(回転が変わった時だけ)
+    private void calcCordinate(float angle, float[] viewProjMatrix) {
         if(mSelectedItem == 2) {
             Matrix.setRotateM(mModelMatrix, 0, mTouchAngle[0], 1.0f, 0.0f, 0.0f); // 適当に回転
             Matrix.rotateM(mModelMatrix, 0, mTouchAngle[1], 0.0f, 1.0f, 0.0f);
@@ -406,17 +1199,54 @@ public class MQOViewerTActivity extends AppCompatActivity implements GLSurfaceVi
             Matrix.rotateM(mModelMatrix, 0, angle, 0.0f, 0.0f, 1.0f);
         }
 
-        // 法線の変換行列を計算し、u_NormalMatrixに設定する
-        float[] inv = new float[16];
-        Matrix.invertM(inv, 0, mModelMatrix, 0);
-        Matrix.transposeM(mNormalMatrix, 0, inv, 0);
-        GLES20.glUniformMatrix4fv(program.u_NormalMatrix, 1, false, mNormalMatrix, 0);
+        // 法線の変換行列を計算
+        Matrix.invertM(mInvMatrix, 0, mModelMatrix, 0);
+        Matrix.transposeM(mNormalMatrix, 0, mInvMatrix, 0);
 
-        // モデルビュー投影行列を計算し、u_MvpMatrixに設定する
+        // モデルビュー投影行列を計算
         Matrix.multiplyMM(mMvpMatrix, 0, viewProjMatrix, 0, mModelMatrix, 0);
+    }
+
+    // 計算した行列をu_NormalMatrix、u_MvpMatrixに設定する
+    private void setMatrices(GLShader program) {
+        GLES20.glUniformMatrix4fv(program.u_NormalMatrix, 1, false, mNormalMatrix, 0);
         GLES20.glUniformMatrix4fv(program.u_MvpMatrix, 1, false, mMvpMatrix, 0);
     }
 
+    /**
+     * 画面上の点に表示されている面を探す(直前のフレームのモデルビュー投影行列を使う。GLスレッドから呼び出すこと)
+     * @param x 画面上のx座標(ピクセル)
+     * @param y 画面上のy座標(ピクセル)
+     * @return 見つかった面(Objectの番号、面の番号、モデル座標系での交点)。なければnull
+     *         キャッシュから読み込んだモデルでBVHがまだなければ、作り始めてnullを返す(作り終わったら探し直す)
+     */
+    public MeshBVH.Hit pick(float x, float y) {
+        if (mWidth == 0 || mHeight == 0) return null;
+        if (mBVH == null) {
+            if (mShownTask != null && !mDrawingInfos.isEmpty()) mShownTask.requestBVH(x, y);   // 作り終わったら探し直す
+            return null;
+        }
+
+        // 画面上の点を、手前(z = -1)と奥(z = 1)のクリップ座標からモデル座標に戻してレイにする
+        if (!Matrix.invertM(mPickMatrix, 0, mMvpMatrix, 0)) return null;
+        float nx = 2.0f * x / mWidth - 1.0f;
+        float ny = 1.0f - 2.0f * y / mHeight;
+        float[] near = {nx, ny, -1.0f, 1.0f};
+        float[] far = {nx, ny, 1.0f, 1.0f};
+        Matrix.multiplyMV(mPickPoint, 0, mPickMatrix, 0, near, 0);
+        Matrix.multiplyMV(mPickPoint, 4, mPickMatrix, 0, far, 0);
+        float[] origin = new float[3];
+        float[] dir = new float[3];
+        for (int k = 0; k < 3; k++) {
+            origin[k] = mPickPoint[k] / mPickPoint[3];
+            dir[k] = mPickPoint[4 + k] / mPickPoint[7] - origin[k];
+        }
+
+        MeshBVH.Hit hit = new MeshBVH.Hit();
+        mPicked = mBVH.intersect(origin, dir, hit) ? hit : null;
+        return mPicked;
+    }
+
     private float animate(float angle) {
         long now = SystemClock.uptimeMillis();   // 前回呼び出されてからの経過時間を計算
         long elapsed = now - mLast;
@@ -425,31 +1255,4 @@ public class MQOViewerTActivity extends AppCompatActivity implements GLSurfaceVi
         float newAngle = angle + (ANGLE_STEP * elapsed) / 1000.0f;
         return newAngle %= 360;
     }
-
-    private String toStringFromAssetFile(String fileName) throws IOException {
-        StringBuilder stringBuilder = new StringBuilder();
-        InputStream inputStream = null;
-        InputStreamReader inputStreamReader = null;
-        BufferedReader bufferedReader = null;
-        try {
-            inputStream = getAssets().open(fileName);
-            inputStreamReader = new InputStreamReader(inputStream, "UTF-8");
-            bufferedReader = new BufferedReader(inputStreamReader);
-
-            String line;
-            while ((line = bufferedReader.readLine()) != null) {
-                stringBuilder.append(line);
-                stringBuilder.append('\n');
-            }
-        } catch (IOException e) {
-            throw e;
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            if (bufferedReader != null) bufferedReader.close();
-            if (inputStreamReader != null) inputStreamReader.close();
-            if (inputStream != null) inputStream.close();
-        }
-        return stringBuilder.toString();
-    }
 }
@@ -0,0 +1,171 @@
+package com.tks.mqoviewert;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * テクスチャオブジェクトを画像のパスごとに1つだけ作って使い回す
+ * 画像はacquire()で初めて使われた時に1回だけ転送し、転送後のBitmapはすぐに解放する
+ * どのモデルからも使われなくなったテクスチャは残しておき、GPUメモリの予算を超えたら古いものから削除する
+ * contains()以外はGLスレッドから呼び出すこと
+ */
+public class TextureManager {
+    private static final String TAG = "GLES20";
+    public static final long DEFAULT_BUDGET = 64L * 1024 * 1024;  // 既定のGPUメモリの予算(バイト)
+
+    // 画像を読み込む処理
+    public interface Loader {
+        /**
+         * 画像を読み込む
+         * @param path acquire()に渡されたパス
+         * @return 読み込んだ画像。読み込めなければnull
+         */
+        Bitmap load(String path) throws IOException;
+    }
+
+    // テクスチャ1つ分の情報
+    private static class Texture {
+        public int texId;
+        public int refCount;    // 使っているモデルの数
+        public long bytes;      // GPUメモリの使用量(おおよそ)
+    }
+
+    private final Loader mLoader;
+    private long mBudget;
+    private long mBytes;    // 全テクスチャのGPUメモリの使用量
+    private final LinkedHashMap<String, Texture> mTextures = new LinkedHashMap<String, Texture>(16, 0.75f, true); // 使った順に並ぶ
+
+    // コンストラクタ
+    public TextureManager(Loader loader) {
+        this(loader, DEFAULT_BUDGET);
+    }
+
+    public TextureManager(Loader loader, long budget) {
+        this.mLoader = loader;
+        this.mBudget = budget;
+    }
+
+    /**
+     * GPUメモリの予算を設定する。使われていないテクスチャは予算内に収まるまで削除する
+     * 使われているテクスチャは削除しないので、それだけで予算を超えることはある
+     * @param budget 予算(バイト)
+     */
+    public synchronized void setBudget(long budget) {
+        this.mBudget = budget;
+        this.trim();
+    }
+
+    /**
+     * パスの画像のテクスチャオブジェクトを取得し、参照数を増やす
+     * @param path 画像のパス
+     * @return テクスチャオブジェクト。画像が読み込めなければ0
+     */
+    public int acquire(String path) {
+        return this.acquire(path, null);
+    }
+
+    /**
+     * パスの画像のテクスチャオブジェクトを取得し、参照数を増やす
+     * @param path 画像のパス
+     * @param bitmap 別スレッドで読み込んでおいた画像(なければnull)。使わなかった場合もここで解放する
+     * @return テクスチャオブジェクト。画像が読み込めなければ0
+     */
+    public synchronized int acquire(String path, Bitmap bitmap) {
+        Texture texture = this.mTextures.get(path);
+        if (texture != null && bitmap != null) bitmap.recycle();    // もう転送してある
+        if (texture == null) {
+            texture = this.upload(path, bitmap);
+            if (texture == null) return 0;
+            this.mTextures.put(path, texture);
+            this.mBytes += texture.bytes;
+        }
+        texture.refCount++;
+        this.trim();
+        return texture.texId;
+    }
+
+    /**
+     * acquire()で増やした参照数を減らす。参照数が0になっても、予算を超えるまでは削除しない
+     * @param path 画像のパス
+     */
+    public synchronized void release(String path) {
+        Texture texture = this.mTextures.get(path);
+        if (texture == null || texture.refCount == 0) return;
+        texture.refCount--;
+        this.trim();
+    }
+
+    /**
+     * GLコンテキストが作り直された時に呼び出す。前のテクスチャオブジェクトはもう無いので、削除せずに忘れる
+     * 参照数も0に戻るので、使う側はacquire()し直すこと
+     */
+    public synchronized void onContextLost() {
+        this.mTextures.clear();
+        this.mBytes = 0;
+    }
+
+    /**
+     * パスの画像のテクスチャを保持しているか(別スレッドから、画像を読み込んでおく必要があるかを調べる)
+     * 保持していても、acquire()するまでの間に削除されることはある
+     */
+    public synchronized boolean contains(String path) {
+        return this.mTextures.containsKey(path);
+    }
+
+    // GPUメモリの使用量(バイト)
+    public synchronized long getBytes() {
+        return this.mBytes;
+    }
+
+    // 保持しているテクスチャの数
+    public synchronized int getCount() {
+        return this.mTextures.size();
+    }
+
+    // 画像を(読み込んでいなければ読み込んで)テクスチャオブジェクトに転送する
+    private Texture upload(String path, Bitmap bitmap) {
+        if (bitmap == null) {
+            try {
+                bitmap = this.mLoader.load(path);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (bitmap == null) {
+            Log.w(TAG, "failed to load texture: " + path);
+            return null;
+        }
+
+        Texture texture = new Texture();
+        int[] texIds = new int[1];
+        GLES20.glGenTextures(1, texIds, 0);
+        texture.texId = texIds[0];
+        texture.bytes = bitmap.getByteCount();
+
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture.texId);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+        bitmap.recycle();   // 転送したらCPU側の画像は要らない
+        return texture;
+    }
+
+    // 予算を超えている間、使われていないテクスチャを古いものから削除する
+    private void trim() {
+        int[] texIds = new int[1];
+        Iterator<Texture> it = this.mTextures.values().iterator();
+        while (this.mBytes > this.mBudget && it.hasNext()) {
+            Texture texture = it.next();
+            if (texture.refCount > 0) continue;
+            texIds[0] = texture.texId;
+            GLES20.glDeleteTextures(1, texIds, 0);
+            this.mBytes -= texture.bytes;
+            it.remove();
+        }
+    }
+}
@@ -1,15 +1,10 @@
 package com.tks.mqoviewert;
 
 import android.opengl.GLES20;
-import android.opengl.Matrix;
-
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
 
 /**
  * Created by jun on 2016/11/29.
+ * シェーダの作成などGLES20を使う処理(ベクトル、行列の計算はMathUtils、バッファの作成はBufferUtils)
  */
 public class Utils {
     private static final String TAG = "GLES20";
@@ -91,66 +86,4 @@ public class Utils {
 
         return shader;
     }
-
-    public static void normalizeVector3(float[] v, int offset) {
-        float length = (float)Math.sqrt(v[offset] * v[offset] + v[offset + 1] * v[offset + 1] + v[offset + 2] * v[offset + 2]);
-        if (length == 0) return;
-        v[offset] /= length;
-        v[offset + 1] /= length;
-        v[offset + 2] /= length;
-    }
-
-    /**
-     * 透視投影行列を作成する
-     * @param m 透視投影行列
-     * @param offset mのどこから計算した行列を格納するか
-     * @param fovy 視野角
-     * @param aspect 近平面の縦横比
-     * @param zNear 近平面までの距離
-     * @param zFar 遠平面までの距離
-     * @return なし
-     */
-    public static void setPerspectiveM(float[] m, int offset, double fovy, double aspect, double zNear, double zFar) {
-        Matrix.setIdentityM(m, offset);
-        double ymax = zNear * Math.tan(fovy * Math.PI / 360.0);
-        double ymin = -ymax;
-        double xmin = ymin * aspect;
-        double xmax = ymax * aspect;
-        Matrix.frustumM(m, offset, (float)xmin, (float)xmax, (float)ymin, (float)ymax, (float)zNear, (float)zFar);
-    }
-
-    /**
-     * 指定の byte 型配列をコピーしたダイレクトバッファを作成します。
-     * @param array int 型の配列
-     * @return IntBuffer 型のオブジェクトを返します。
-     * @exception java.lang.IllegalArgumentException 引数に null が指定された場合に投げられます。
-     */
-    public static ShortBuffer makeShortBuffer(short[] array) {
-        if (array == null) throw new IllegalArgumentException();
-
-        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(2 * array.length);
-        byteBuffer.order(ByteOrder.nativeOrder());
-        ShortBuffer shortBuffer = byteBuffer.asShortBuffer();
-        shortBuffer.put(array);
-        shortBuffer.position(0);
-        return shortBuffer;
-    }
-
-    /**
-     * 指定の float 型配列をコピーしたダイレクトバッファを作成します。
-     * @param array float 型の配列
-     * @return FloatBuffer 型のオブジェクトを返します。
-     * @exception java.lang.IllegalArgumentException 引数に null が指定された場合に投げられます。
-     */
-    public static FloatBuffer makeFloatBuffer(float[] array) {
-        if (array == null) throw new IllegalArgumentException();
-
-        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(4 * array.length);
-        byteBuffer.order(ByteOrder.nativeOrder());
-        FloatBuffer floatBuffer = byteBuffer.asFloatBuffer();
-        floatBuffer.put(array);
-        floatBuffer.position(0);
-        return floatBuffer;
-    }
-
 }
@@ -0,0 +1,40 @@
+package com.tks.mqoviewert.benchmark;
+
+import com.tks.mqoviewert.SyntheticModels;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * ベンチマークで使うモデルのバイト列
+ * 同梱のモデル(sakana.mqo、vase.mqo)はクラスパスから読み込み、大きなモデルはその場で作る(SyntheticModels)
+ */
+public class BenchmarkModels {
+    // 作るモデルの名前と大きさ(Object数, 1 Objectの一辺の四角形の数)
+    public static final String SMALL = "synthetic-small";  // 4 Object × 60×60面 = 14400面
+    public static final String LARGE = "synthetic-large";  // 16 Object × 120×120面 = 230400面
+
+    /**
+     * モデルのバイト列を取得する
+     * @param name 同梱のモデルのファイル名か、SMALL、LARGE
+     * @return MQOファイルの内容
+     * @exception java.lang.IllegalArgumentException 名前のモデルがない場合に投げられます。
+     */
+    public static byte[] load(String name) throws IOException {
+        if (SMALL.equals(name)) return SyntheticModels.generate(4, 60, 4);
+        if (LARGE.equals(name)) return SyntheticModels.generate(16, 120, 4);
+
+        InputStream in = BenchmarkModels.class.getResourceAsStream("/" + name);
+        if (in == null) throw new IllegalArgumentException(name);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) out.write(buffer, 0, n);
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.tks.mqoviewert.benchmark;
+
+import com.tks.mqoviewert.MQODoc;
+import com.tks.mqoviewert.BufferUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 描画情報の配列をダイレクトバッファにコピーする時間(GPUに転送する直前の処理)
+ * 1回で全描画情報の頂点座標、法線、色、UV、インデックスをコピーする
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BufferBenchmark {
+
+    @Param({"sakana.mqo", BenchmarkModels.LARGE})
+    public String model;
+
+    private List<MQODoc.DrawingInfo> mDrawingInfos;
+
+    @Setup
+    public void setup() throws IOException {
+        MQODoc doc = new MQODoc();
+        doc.setWeldVertices(true);
+        if (!doc.parse(ByteBuffer.wrap(BenchmarkModels.load(this.model))))
+            throw new IllegalStateException("parse failed: " + this.model);
+        this.mDrawingInfos = doc.getDrawingInfos();
+    }
+
+    @Benchmark
+    public int makeFloatBuffer() {
+        int capacity = 0;
+        for (int i = 0; i < this.mDrawingInfos.size(); i++) {
+            MQODoc.DrawingInfo info = this.mDrawingInfos.get(i);
+            FloatBuffer vertices = BufferUtils.makeFloatBuffer(info.vertices);
+            FloatBuffer normals = BufferUtils.makeFloatBuffer(info.normals);
+            FloatBuffer colors = BufferUtils.makeFloatBuffer(info.colors);
+            FloatBuffer uvs = BufferUtils.makeFloatBuffer(info.uvs);
+            IntBuffer indices = BufferUtils.makeIntBuffer(info.indices);
+            capacity += vertices.capacity() + normals.capacity() + colors.capacity() + uvs.capacity() + indices.capacity();
+        }
+        return capacity;
+    }
+}
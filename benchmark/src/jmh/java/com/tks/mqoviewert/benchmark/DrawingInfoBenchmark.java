@@ -0,0 +1,51 @@
+package com.tks.mqoviewert.benchmark;
+
+import com.tks.mqoviewert.MQODoc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 解析済みのモデルから描画情報を作る時間(MQODoc.getDrawingInfos()。読み込み時に画面が出るまでの待ち時間の一部)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DrawingInfoBenchmark {
+
+    @Param({"sakana.mqo", "vase.mqo", BenchmarkModels.SMALL, BenchmarkModels.LARGE})
+    public String model;
+
+    @Param({"true", "false"})
+    public boolean weld;        // 同じ頂点をまとめるか
+
+    @Param({"true", "false"})
+    public boolean optimize;    // 頂点キャッシュに合わせて並べ替えるか
+
+    private MQODoc mDoc;
+
+    @Setup
+    public void setup() throws IOException {
+        this.mDoc = new MQODoc();
+        this.mDoc.setWeldVertices(this.weld);
+        this.mDoc.setOptimizeVertexCache(this.optimize);
+        if (!this.mDoc.parse(ByteBuffer.wrap(BenchmarkModels.load(this.model))))
+            throw new IllegalStateException("parse failed: " + this.model);
+    }
+
+    @Benchmark
+    public List<MQODoc.DrawingInfo> getDrawingInfos() {
+        return this.mDoc.getDrawingInfos();     // リスナーを設定していないので、毎回作り直す
+    }
+}
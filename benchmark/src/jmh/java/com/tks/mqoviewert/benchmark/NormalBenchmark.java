@@ -0,0 +1,73 @@
+package com.tks.mqoviewert.benchmark;
+
+import com.tks.mqoviewert.MQODoc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 法線の計算時間
+ *   objectNormals: 配列にまとめた頂点と面での計算(MQOObject.setNormals()、calcNormal(float[], int, ...))
+ *   faceNormals: Vertex、Faceオブジェクトごとの計算(Face.setNormal()、calcNormal(float[], float[], float[]))
+ * どちらも頂点の法線に面の法線を加算していくので、値はイテレーションごとに戻す
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NormalBenchmark {
+
+    @Param({"sakana.mqo", "vase.mqo", BenchmarkModels.SMALL, BenchmarkModels.LARGE})
+    public String model;
+
+    private List<MQODoc.MQOObject> mObjects;
+    private MQODoc.Vertex[][] mVertices;    // Objectごとの頂点
+    private MQODoc.Face[][] mFaces;         // Objectごとの面
+
+    @Setup
+    public void setup() throws IOException {
+        MQODoc doc = new MQODoc();
+        if (!doc.parse(ByteBuffer.wrap(BenchmarkModels.load(this.model))))
+            throw new IllegalStateException("parse failed: " + this.model);
+        this.mObjects = doc.getObjects();
+        this.mVertices = new MQODoc.Vertex[this.mObjects.size()][];
+        this.mFaces = new MQODoc.Face[this.mObjects.size()][];
+        for (int i = 0; i < this.mObjects.size(); i++) {
+            this.mVertices[i] = this.mObjects.get(i).getVertices();
+            this.mFaces[i] = this.mObjects.get(i).getFaces();
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void resetNormals() {
+        for (int i = 0; i < this.mObjects.size(); i++) {
+            Arrays.fill(this.mObjects.get(i).normals, 0.0f);
+            for (int j = 0; j < this.mVertices[i].length; j++) Arrays.fill(this.mVertices[i][j].normal, 0.0f);
+        }
+    }
+
+    @Benchmark
+    public void objectNormals() {
+        for (int i = 0; i < this.mObjects.size(); i++) this.mObjects.get(i).setNormals();
+    }
+
+    @Benchmark
+    public void faceNormals() {
+        for (int i = 0; i < this.mFaces.length; i++) {
+            MQODoc.Face[] faces = this.mFaces[i];
+            for (int j = 0; j < faces.length; j++) faces[j].setNormal(this.mVertices[i]);
+        }
+    }
+}
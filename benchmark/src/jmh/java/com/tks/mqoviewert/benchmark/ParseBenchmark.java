@@ -0,0 +1,75 @@
+package com.tks.mqoviewert.benchmark;
+
+import com.tks.mqoviewert.MQODoc;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MQODoc.parse()のスループット
+ * 1秒あたりの解析回数に加えて、bytes(1秒あたりのバイト数、MB/sは1e6で割る)とfaces(1秒あたりの面数)を出す
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ParseBenchmark {
+
+    @Param({"sakana.mqo", "vase.mqo", BenchmarkModels.SMALL, BenchmarkModels.LARGE})
+    public String model;
+
+    @Param({"true", "false"})
+    public boolean parallel;    // Objectチャンクを複数スレッドで解析するか
+
+    private byte[] mBytes;
+    private int mFaces;
+
+    // 解析したバイト数と面数(1秒あたりに直して出力される)
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long bytes;
+        public long faces;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            this.bytes = 0;
+            this.faces = 0;
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        this.mBytes = BenchmarkModels.load(this.model);
+        MQODoc doc = this.parse();
+        List<MQODoc.MQOObject> objects = doc.getObjects();
+        for (int i = 0; i < objects.size(); i++) this.mFaces += objects.get(i).numFaces;
+    }
+
+    @Benchmark
+    public MQODoc parse(Counters counters) throws IOException {
+        MQODoc doc = this.parse();
+        counters.bytes += this.mBytes.length;
+        counters.faces += this.mFaces;
+        return doc;
+    }
+
+    private MQODoc parse() throws IOException {
+        MQODoc doc = new MQODoc();
+        doc.setParallel(this.parallel);
+        if (!doc.parse(ByteBuffer.wrap(this.mBytes))) throw new IllegalStateException("parse failed: " + this.model);
+        return doc;
+    }
+}
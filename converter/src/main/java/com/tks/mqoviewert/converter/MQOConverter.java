@@ -0,0 +1,366 @@
+package com.tks.mqoviewert.converter;
+
+import com.tks.mqoviewert.InterleavedVertices;
+import com.tks.mqoviewert.MQOCache;
+import com.tks.mqoviewert.MQODoc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ディレクトリ以下のMQOファイルをすべて、描画情報のキャッシュ形式(.mqoc、MQOCacheと同じ形式)に変換する
+ * 出力ディレクトリには入力と同じディレクトリ構成で「モデル名.mqoc」を書き出す
+ * ファイルごとに別スレッドで変換し、元ファイルのハッシュと作り方が一致する出力が既にあれば変換しない
+ * テクスチャの名前は、モデルのディレクトリからの相対パス('/'区切り)に直す
+ *
+ * 使い方: MQOConverter 入力ディレクトリ 出力ディレクトリ [オプション]
+ *   --threads N      変換するスレッド数(既定はCPUのコア数)
+ *   --force          変換済みでも変換し直す
+ *   --no-weld        同じ頂点をまとめない
+ *   --uint-indices   32ビットのインデックスを使う(描画情報を65536頂点ごとに分割しない)
+ *   --no-per-object  Objectごとに描画情報を分けない
+ *   --no-optimize    頂点キャッシュに合わせて並べ替えない
+ *   --lod R1,R2,...  詳細度の割合(既定は0.5,0.25)
+ *   --no-lod         詳細度を下げたものを作らない
+ *   --compression-report  頂点を詰めた場合と圧縮した場合の大きさと、圧縮による最大誤差も出す
+ * 既定の作り方はアプリ(MQOViewerTActivity)と同じなので、出力はアプリのキャッシュと同じ値でMQOCache.readDrawingInfos()から読み込める
+ * 1つでも変換に失敗すると終了コードは1になる
+ */
+public class MQOConverter {
+    private static final String INPUT_SUFFIX = ".mqo";
+    private static final String OUTPUT_SUFFIX = ".mqoc";
+
+    // 描画情報の作り方
+    public static class Options {
+        public int threads = Runtime.getRuntime().availableProcessors();
+        public boolean force = false;
+        public boolean weldVertices = true;
+        public boolean uintIndices = false;
+        public boolean perObject = true;
+        public boolean optimizeVertexCache = true;
+        public float[] lodRatios = {0.5f, 0.25f};
+        public boolean compressionReport = false;
+
+        // MQOCacheに書き込む、作り方を表す値
+        public int value() {
+            return MQOCache.options(this.weldVertices, this.uintIndices, this.perObject, this.optimizeVertexCache, this.lodRatios);
+        }
+    }
+
+    private final File mInputDir;
+    private final File mOutputDir;
+    private final Options mOptions;
+
+    // 結果(複数のスレッドから更新する)
+    private final AtomicInteger mConverted = new AtomicInteger();
+    private final AtomicInteger mSkipped = new AtomicInteger();
+    private final AtomicInteger mFailed = new AtomicInteger();
+    private final AtomicLong mInputBytes = new AtomicLong();    // 変換したファイルのバイト数
+    private final AtomicLong mOutputBytes = new AtomicLong();
+    private final AtomicLong mFaces = new AtomicLong();         // 変換したファイルの面数
+    // 頂点の大きさと圧縮による誤差(--compression-reportの場合のみ)
+    private final AtomicLong mFloatBytes = new AtomicLong();        // floatの配列4つのバイト数
+    private final AtomicLong mPackedBytes = new AtomicLong();       // 詰めて並べた場合のバイト数
+    private final AtomicLong mCompressedBytes = new AtomicLong();   // 圧縮した場合のバイト数
+    private float mMaxPositionError;    // 座標の最大誤差(モデルの座標の単位、thisで同期する)
+    private float mMaxNormalError;      // 法線の向きの最大誤差(度、thisで同期する)
+    private final List<String> mFailures = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> mWarnings = Collections.synchronizedList(new ArrayList<String>());
+
+    // コンストラクタ
+    public MQOConverter(File inputDir, File outputDir, Options options) {
+        this.mInputDir = inputDir;
+        this.mOutputDir = outputDir;
+        this.mOptions = options;
+    }
+
+    public static void main(String[] args) {
+        Options options = new Options();
+        List<String> paths = new ArrayList<String>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("--threads")) options.threads = Integer.parseInt(args[++i]);
+                else if (arg.equals("--force")) options.force = true;
+                else if (arg.equals("--no-weld")) options.weldVertices = false;
+                else if (arg.equals("--uint-indices")) options.uintIndices = true;
+                else if (arg.equals("--no-per-object")) options.perObject = false;
+                else if (arg.equals("--no-optimize")) options.optimizeVertexCache = false;
+                else if (arg.equals("--lod")) options.lodRatios = parseRatios(args[++i]);
+                else if (arg.equals("--no-lod")) options.lodRatios = null;
+                else if (arg.equals("--compression-report")) options.compressionReport = true;
+                else if (arg.startsWith("--")) throw new IllegalArgumentException("unknown option: " + arg);
+                else paths.add(arg);
+            }
+            if (paths.size() != 2 || options.threads < 1) throw new IllegalArgumentException();
+            if (options.lodRatios != null) new MQODoc().setLodRatios(options.lodRatios);  // 範囲を確かめる
+        } catch (RuntimeException e) {  // 数値の書式、引数の不足、範囲外
+            if (e.getMessage() != null) System.err.println(e.getMessage());
+            System.err.println("usage: MQOConverter <input dir> <output dir> [--threads N] [--force] [--no-weld] [--uint-indices]"
+                               + " [--no-per-object] [--no-optimize] [--lod R1,R2,...] [--no-lod] [--compression-report]");
+            System.exit(2);
+            return;
+        }
+
+        File inputDir = new File(paths.get(0));
+        if (!inputDir.isDirectory()) {
+            System.err.println("not a directory: " + inputDir);
+            System.exit(2);
+            return;
+        }
+        MQOConverter converter = new MQOConverter(inputDir, new File(paths.get(1)), options);
+        boolean ok;
+        try {
+            ok = converter.run();
+        } catch (InterruptedException e) {
+            ok = false;
+        }
+        System.exit(ok ? 0 : 1);
+    }
+
+    /**
+     * すべてのファイルを変換し、結果を標準出力に書く
+     * @return すべて変換できた(か変換済みだった)らtrue
+     */
+    public boolean run() throws InterruptedException {
+        List<File> files = new ArrayList<File>();
+        collect(this.mInputDir, files);
+        Collections.sort(files);
+
+        long start = System.nanoTime();
+        // ファイルの数だけ並列にするので、1つのファイルの中では並列にしない
+        ExecutorService executor = Executors.newFixedThreadPool(this.mOptions.threads);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>(files.size());
+            for (int i = 0; i < files.size(); i++) {
+                final File file = files.get(i);
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        convertFile(file);
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException e) {
+                    // convertFile()の中で記録している
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        this.printSummary(files.size(), seconds);
+        return this.mFailed.get() == 0;
+    }
+
+    // 1つのファイルを変換する(失敗しても例外は投げず、記録して次へ進む)
+    private void convertFile(File input) {
+        String relative = this.relativePath(input);
+        try {
+            if (this.convert(input, relative)) this.mConverted.incrementAndGet();
+            else this.mSkipped.incrementAndGet();
+        } catch (Exception e) {     // 壊れたファイルで何が起きても、他のファイルの変換は続ける
+            this.mFailed.incrementAndGet();
+            this.mFailures.add(relative + ": " + e);
+        }
+    }
+
+    /**
+     * 1つのファイルを変換する
+     * @return 変換したらtrue、変換済みで飛ばしたらfalse
+     */
+    private boolean convert(File input, String relative) throws IOException {
+        File output = new File(this.mOutputDir, relative.substring(0, relative.length() - INPUT_SUFFIX.length()) + OUTPUT_SUFFIX);
+        int options = this.mOptions.value();
+
+        FileInputStream inputStream = new FileInputStream(input);
+        try {
+            FileChannel channel = inputStream.getChannel();
+            ByteBuffer source = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            byte[] hash = MQOCache.hash(source);
+            if (!this.mOptions.force && MQOCache.isUpToDate(output, hash, options)) return false;
+
+            MQODoc mqoDoc = new MQODoc();
+            mqoDoc.setParallel(false);
+            mqoDoc.setWeldVertices(this.mOptions.weldVertices);
+            mqoDoc.setMaxVerticesPerBatch(this.mOptions.uintIndices ? Integer.MAX_VALUE : MQODoc.MAX_SHORT_INDEX_VERTICES);
+            mqoDoc.setOptimizeVertexCache(this.mOptions.optimizeVertexCache);
+            mqoDoc.setLodRatios(this.mOptions.lodRatios);
+            if (this.mOptions.perObject) {
+                // アプリが段階的に表示する場合と同じ、Objectごとの描画情報にする
+                mqoDoc.setOnObjectListener(new MQODoc.OnObjectListener() {
+                    @Override
+                    public void onObject(int index, List<MQODoc.DrawingInfo> drawingInfos) {
+                    }
+                });
+            }
+            if (!mqoDoc.parse(source)) throw new IOException("failed to parse");
+            List<MQODoc.DrawingInfo> drawingInfos = mqoDoc.getDrawingInfos();
+            if (drawingInfos == null) throw new IOException("failed to build drawing infos");
+
+            this.resolveTextures(input.getParentFile(), relative, drawingInfos);
+            this.write(output, hash, options, drawingInfos);
+            if (this.mOptions.compressionReport) this.measureCompression(drawingInfos);
+
+            List<MQODoc.MQOObject> objects = mqoDoc.getObjects();
+            for (int i = 0; i < objects.size(); i++) this.mFaces.addAndGet(objects.get(i).numFaces);
+            this.mInputBytes.addAndGet(channel.size());
+            this.mOutputBytes.addAndGet(output.length());
+            return true;
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    // テクスチャの名前を、モデルのディレクトリからの相対パスに直す(見つからなければそのままにして警告する)
+    private void resolveTextures(File dir, String relative, List<MQODoc.DrawingInfo> drawingInfos) {
+        Map<String, String> resolved = new HashMap<String, String>();  // 元の名前 -> 直した名前(見つからなければnull)
+        for (int i = 0; i < drawingInfos.size(); i++) {
+            MQODoc.DrawingInfo info = drawingInfos.get(i);
+            if (info.texture == null) continue;
+            if (!resolved.containsKey(info.texture)) {  // 同じテクスチャの描画情報は何度も出てくるので、探すのも警告も1回だけ
+                String path = resolveTexture(dir, info.texture);
+                if (path == null) this.mWarnings.add(relative + ": missing texture " + info.texture);
+                resolved.put(info.texture, path);
+            }
+            String path = resolved.get(info.texture);
+            if (path != null) info.texture = path;
+        }
+    }
+
+    /**
+     * テクスチャのファイルを探す
+     * 書かれたままのパス、'\'を'/'にしたパス、ファイル名だけの順に、モデルのディレクトリから探す
+     * @return 見つかったファイルの、モデルのディレクトリからの相対パス('/'区切り)。なければnull
+     */
+    static String resolveTexture(File dir, String texture) {
+        String normalized = texture.replace('\\', '/');
+        String[] candidates = {texture, normalized, new File(normalized).getName()};
+        for (int i = 0; i < candidates.length; i++) {
+            if (new File(candidates[i]).isAbsolute()) continue;     // 変換したマシンでしか見つからない
+            if (new File(dir, candidates[i]).isFile()) return candidates[i].replace('\\', '/');
+        }
+        return null;
+    }
+
+    // キャッシュ形式で書き出す(書きかけのファイルを残さないよう、一時ファイルに書いてから名前を変える)
+    private void write(File output, byte[] hash, int options, List<MQODoc.DrawingInfo> drawingInfos) throws IOException {
+        File dir = output.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) throw new IOException("failed to create " + dir);
+
+        ByteBuffer buffer = ByteBuffer.allocate(MQOCache.computeSize(hash, drawingInfos));
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        MQOCache.writeDrawingInfos(buffer, hash, options, drawingInfos);
+        buffer.flip();
+
+        File tmp = new File(dir, output.getName() + ".tmp");
+        FileOutputStream outputStream = new FileOutputStream(tmp);
+        try {
+            FileChannel channel = outputStream.getChannel();
+            while (buffer.hasRemaining()) channel.write(buffer);
+        } finally {
+            outputStream.close();
+        }
+        if (output.exists() && !output.delete()) {
+            tmp.delete();
+            throw new IOException("failed to replace " + output);
+        }
+        if (!tmp.renameTo(output)) {
+            tmp.delete();
+            throw new IOException("failed to rename " + tmp);
+        }
+    }
+
+    // アプリがGPUに転送する形式に詰めた場合と圧縮した場合の大きさと、圧縮による誤差を数える
+    private void measureCompression(List<MQODoc.DrawingInfo> drawingInfos) {
+        float maxPositionError = 0.0f, maxNormalError = 0.0f;
+        for (int i = 0; i < drawingInfos.size(); i++) {
+            MQODoc.DrawingInfo info = drawingInfos.get(i);
+            int n = info.vertices.length / 3;
+            this.mFloatBytes.addAndGet(4L * (info.vertices.length + info.normals.length + info.colors.length + info.uvs.length));
+            this.mPackedBytes.addAndGet((long)InterleavedVertices.pack(info, false).stride * n);
+            InterleavedVertices compressed = InterleavedVertices.pack(info, true);
+            this.mCompressedBytes.addAndGet((long)compressed.stride * n);
+            maxPositionError = Math.max(maxPositionError, compressed.maxPositionError);
+            maxNormalError = Math.max(maxNormalError, compressed.maxNormalError);
+        }
+        synchronized (this) {
+            this.mMaxPositionError = Math.max(this.mMaxPositionError, maxPositionError);
+            this.mMaxNormalError = Math.max(this.mMaxNormalError, maxNormalError);
+        }
+    }
+
+    private void printSummary(int numFiles, double seconds) {
+        List<String> warnings = new ArrayList<String>(this.mWarnings);
+        List<String> failures = new ArrayList<String>(this.mFailures);
+        Collections.sort(warnings);
+        Collections.sort(failures);
+        for (int i = 0; i < warnings.size(); i++) System.out.println("warning: " + warnings.get(i));
+        for (int i = 0; i < failures.size(); i++) System.out.println("failed: " + failures.get(i));
+
+        double mb = this.mInputBytes.get() / 1e6;
+        System.out.println(String.format(Locale.ROOT, "%d files: %d converted, %d skipped (up to date), %d failed, %d warnings",
+                                         numFiles, this.mConverted.get(), this.mSkipped.get(), this.mFailed.get(), warnings.size()));
+        System.out.println(String.format(Locale.ROOT, "%.1f MB -> %.1f MB, %d faces in %.2f s (%d threads): %.1f MB/s, %.0f faces/s",
+                                         mb, this.mOutputBytes.get() / 1e6, this.mFaces.get(), seconds, this.mOptions.threads,
+                                         seconds > 0 ? mb / seconds : 0.0, seconds > 0 ? this.mFaces.get() / seconds : 0.0));
+        if (this.mOptions.compressionReport) {
+            synchronized (this) {
+                long floatBytes = Math.max(this.mFloatBytes.get(), 1);
+                System.out.println(String.format(Locale.ROOT, "vertices: %.3f MB float, %.3f MB packed (%.0f%%), %.3f MB compressed (%.0f%%);"
+                                                 + " max error %.6f (position), %.4f deg (normal)",
+                                                 this.mFloatBytes.get() / 1e6, this.mPackedBytes.get() / 1e6, 100.0 * this.mPackedBytes.get() / floatBytes,
+                                                 this.mCompressedBytes.get() / 1e6, 100.0 * this.mCompressedBytes.get() / floatBytes,
+                                                 this.mMaxPositionError, this.mMaxNormalError));
+            }
+        }
+    }
+
+    // 入力ディレクトリからの相対パス('/'区切り)
+    private String relativePath(File file) {
+        String base = this.mInputDir.getAbsolutePath();
+        String path = file.getAbsolutePath();
+        String relative = path.startsWith(base) ? path.substring(base.length()) : file.getName();
+        while (relative.startsWith(File.separator)) relative = relative.substring(1);
+        return relative.replace(File.separatorChar, '/');
+    }
+
+    // ディレクトリ以下のMQOファイルを集める
+    private static void collect(File dir, List<File> out) {
+        File[] children = dir.listFiles();
+        if (children == null) return;
+        for (int i = 0; i < children.length; i++) {
+            File child = children[i];
+            if (child.isDirectory()) collect(child, out);
+            else if (child.getName().toLowerCase(Locale.ROOT).endsWith(INPUT_SUFFIX)) out.add(child);
+        }
+    }
+
+    private static float[] parseRatios(String value) {
+        String[] parts = value.split(",");
+        float[] ratios = new float[parts.length];
+        for (int i = 0; i < parts.length; i++) ratios[i] = Float.parseFloat(parts[i].trim());
+        return ratios;
+    }
+}
@@ -0,0 +1,108 @@
+package com.tks.mqoviewert.converter;
+
+import com.tks.mqoviewert.MQOCache;
+import com.tks.mqoviewert.MQODoc;
+import com.tks.mqoviewert.SyntheticModels;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MQOConverterTest {
+    private File mDir;
+
+    @Before
+    public void setUp() throws IOException {
+        this.mDir = File.createTempFile("converter", "");
+        this.mDir.delete();
+        assertTrue(this.mDir.mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        delete(this.mDir);
+    }
+
+    // 書かれたままのパス、'\'を'/'にしたパス、ファイル名だけの順に探し、'/'区切りの相対パスにする
+    @Test
+    public void resolvesTexture() throws IOException {
+        File models = new File(this.mDir, "models");
+        writeFile(new File(models, "tex/a.png"), new byte[1]);
+        writeFile(new File(models, "b.png"), new byte[1]);
+
+        assertEquals("tex/a.png", MQOConverter.resolveTexture(models, "tex/a.png"));
+        assertEquals("tex/a.png", MQOConverter.resolveTexture(models, "tex\\a.png"));
+        assertEquals("b.png", MQOConverter.resolveTexture(models, "b.png"));
+        assertEquals("b.png", MQOConverter.resolveTexture(models, "C:\\work\\textures\\b.png"));   // 作ったマシンのパス
+        assertEquals("b.png", MQOConverter.resolveTexture(models, new File(this.mDir, "elsewhere/b.png").getAbsolutePath()));
+        assertNull(MQOConverter.resolveTexture(models, "c.png"));
+        assertNull(MQOConverter.resolveTexture(models, "tex"));     // ディレクトリはテクスチャではない
+    }
+
+    // 変換した出力はキャッシュ形式として読み込め、元ファイルが変わらなければ変換し直さない
+    @Test
+    public void convertsAndSkipsUpToDate() throws Exception {
+        File input = new File(this.mDir, "in");
+        File output = new File(this.mDir, "out");
+        byte[] model = SyntheticModels.generate(2, 6, 2);
+        writeFile(new File(input, "sub/model.mqo"), model);
+        writeFile(new File(input, "sub/tex1.bmp"), new byte[1]);
+
+        MQOConverter.Options options = new MQOConverter.Options();
+        options.threads = 2;
+        assertTrue(new MQOConverter(input, output, options).run());
+        File converted = new File(output, "sub/model.mqoc");
+        assertTrue(converted.isFile());
+        long modified = converted.lastModified();
+
+        byte[] hash = MQOCache.hash(ByteBuffer.wrap(model));
+        RandomAccessFile file = new RandomAccessFile(converted, "r");
+        List<MQODoc.DrawingInfo> drawingInfos;
+        try {
+            byte[] bytes = new byte[(int)file.length()];
+            file.readFully(bytes);
+            drawingInfos = MQOCache.readDrawingInfos(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN), hash, options.value());
+        } finally {
+            file.close();
+        }
+        assertNotNull(drawingInfos);
+        assertTrue(drawingInfos.size() > 0);
+        for (int i = 0; i < drawingInfos.size(); i++) {
+            String texture = drawingInfos.get(i).texture;
+            assertTrue(texture == null || texture.equals("tex1.bmp"));
+        }
+
+        assertTrue(new MQOConverter(input, output, options).run());
+        assertEquals(modified, converted.lastModified());
+    }
+
+    private static void writeFile(File file, byte[] bytes) throws IOException {
+        File dir = file.getParentFile();
+        assertTrue(dir.isDirectory() || dir.mkdirs());
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(bytes);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) for (File child : children) delete(child);
+        file.delete();
+    }
+}
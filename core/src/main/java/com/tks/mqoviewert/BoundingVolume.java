@@ -0,0 +1,59 @@
+package com.tks.mqoviewert;
+
+/**
+ * 頂点座標を囲む軸平行の箱(AABB)と球
+ * 視錐台の外にあるかの判定(Frustum)に使う
+ */
+public class BoundingVolume {
+    public final float[] min = new float[3];    // 箱の最小の座標
+    public final float[] max = new float[3];    // 箱の最大の座標
+    public final float[] center = new float[3]; // 球の中心(箱の中心)
+    public float radius;                        // 球の半径(頂点がないと負)
+
+    /**
+     * 頂点座標を囲む
+     * @param positions 頂点座標(x, y, z)
+     */
+    public BoundingVolume(float[] positions) {
+        this(positions, positions.length / 3);
+    }
+
+    /**
+     * 先頭の頂点座標を囲む
+     * @param positions 頂点座標(x, y, z)
+     * @param count 頂点数
+     */
+    public BoundingVolume(float[] positions, int count) {
+        if (count == 0) {
+            this.radius = -1.0f;    // 空(どの視錐台にも入らない)
+            return;
+        }
+        for (int k = 0; k < 3; k++) {
+            this.min[k] = Float.MAX_VALUE;
+            this.max[k] = -Float.MAX_VALUE;
+        }
+        for (int i = 0; i < count; i++) {
+            for (int k = 0; k < 3; k++) {
+                float p = positions[3 * i + k];
+                if (p < this.min[k]) this.min[k] = p;
+                if (p > this.max[k]) this.max[k] = p;
+            }
+        }
+        for (int k = 0; k < 3; k++) this.center[k] = (this.min[k] + this.max[k]) * 0.5f;
+
+        // 中心から最も遠い頂点までの距離(箱の対角線の半分より小さくなることが多い)
+        float r2 = 0.0f;
+        for (int i = 0; i < count; i++) {
+            float dx = positions[3 * i] - this.center[0];
+            float dy = positions[3 * i + 1] - this.center[1];
+            float dz = positions[3 * i + 2] - this.center[2];
+            r2 = Math.max(r2, dx * dx + dy * dy + dz * dz);
+        }
+        this.radius = (float)Math.sqrt(r2);
+    }
+
+    // 頂点がないか
+    public boolean isEmpty() {
+        return this.radius < 0;
+    }
+}
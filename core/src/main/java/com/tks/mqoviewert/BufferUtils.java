@@ -0,0 +1,81 @@
+package com.tks.mqoviewert;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * 配列をコピーしたダイレクトバッファ(ネイティブのバイト順)を作る。GPUに転送する前に使う
+ */
+public class BufferUtils {
+
+    /**
+     * 指定の byte 型配列をコピーしたダイレクトバッファを作成します。
+     * @param array int 型の配列
+     * @return IntBuffer 型のオブジェクトを返します。
+     * @exception java.lang.IllegalArgumentException 引数に null が指定された場合に投げられます。
+     */
+    public static ShortBuffer makeShortBuffer(short[] array) {
+        if (array == null) throw new IllegalArgumentException();
+
+        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(2 * array.length);
+        byteBuffer.order(ByteOrder.nativeOrder());
+        ShortBuffer shortBuffer = byteBuffer.asShortBuffer();
+        shortBuffer.put(array);
+        shortBuffer.position(0);
+        return shortBuffer;
+    }
+
+    /**
+     * 指定の int 型配列を short 型に詰めてコピーしたダイレクトバッファを作成します。
+     * 値はすべて 0～65535 であること(16ビットのインデックスとして使う)
+     * @param array int 型の配列
+     * @return ShortBuffer 型のオブジェクトを返します。
+     * @exception java.lang.IllegalArgumentException 引数に null が指定された場合に投げられます。
+     */
+    public static ShortBuffer makeShortBuffer(int[] array) {
+        if (array == null) throw new IllegalArgumentException();
+
+        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(2 * array.length);
+        byteBuffer.order(ByteOrder.nativeOrder());
+        ShortBuffer shortBuffer = byteBuffer.asShortBuffer();
+        for (int i = 0; i < array.length; i++) shortBuffer.put(i, (short)array[i]);
+        return shortBuffer;
+    }
+
+    /**
+     * 指定の int 型配列をコピーしたダイレクトバッファを作成します。
+     * @param array int 型の配列
+     * @return IntBuffer 型のオブジェクトを返します。
+     * @exception java.lang.IllegalArgumentException 引数に null が指定された場合に投げられます。
+     */
+    public static IntBuffer makeIntBuffer(int[] array) {
+        if (array == null) throw new IllegalArgumentException();
+
+        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(4 * array.length);
+        byteBuffer.order(ByteOrder.nativeOrder());
+        IntBuffer intBuffer = byteBuffer.asIntBuffer();
+        intBuffer.put(array);
+        intBuffer.position(0);
+        return intBuffer;
+    }
+
+    /**
+     * 指定の float 型配列をコピーしたダイレクトバッファを作成します。
+     * @param array float 型の配列
+     * @return FloatBuffer 型のオブジェクトを返します。
+     * @exception java.lang.IllegalArgumentException 引数に null が指定された場合に投げられます。
+     */
+    public static FloatBuffer makeFloatBuffer(float[] array) {
+        if (array == null) throw new IllegalArgumentException();
+
+        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(4 * array.length);
+        byteBuffer.order(ByteOrder.nativeOrder());
+        FloatBuffer floatBuffer = byteBuffer.asFloatBuffer();
+        floatBuffer.put(array);
+        floatBuffer.position(0);
+        return floatBuffer;
+    }
+}
@@ -0,0 +1,63 @@
+package com.tks.mqoviewert;
+
+import java.util.Arrays;
+
+/**
+ * float型の値を追加していける配列(ArrayList<Float>と違いボクシングしない)
+ */
+public class FloatArrayList {
+
+    private float[] mArray;
+    private int mSize;
+
+    // コンストラクタ
+    public FloatArrayList() {
+        this(16);
+    }
+
+    public FloatArrayList(int capacity) {
+        this.mArray = new float[Math.max(capacity, 1)];
+        this.mSize = 0;
+    }
+
+    // 要素数
+    public int size() {
+        return this.mSize;
+    }
+
+    // index番目の値
+    public float get(int index) {
+        if (index >= this.mSize) throw new IndexOutOfBoundsException();
+        return this.mArray[index];
+    }
+
+    // 値を1つ追加する
+    public void add(float value) {
+        this.ensureCapacity(this.mSize + 1);
+        this.mArray[this.mSize++] = value;
+    }
+
+    // 配列のoffsetからlength個の値を追加する
+    public void add(float[] values, int offset, int length) {
+        this.ensureCapacity(this.mSize + length);
+        System.arraycopy(values, offset, this.mArray, this.mSize, length);
+        this.mSize += length;
+    }
+
+    // 空にする(確保した領域はそのまま使い回す)
+    public void clear() {
+        this.mSize = 0;
+    }
+
+    // 追加した値を、要素数ちょうどの配列にコピーして返す
+    public float[] toArray() {
+        return Arrays.copyOf(this.mArray, this.mSize);
+    }
+
+    // 少なくともcapacity個の値を格納できるように広げる
+    public void ensureCapacity(int capacity) {
+        if (capacity <= this.mArray.length) return;
+        this.mArray = Arrays.copyOf(this.mArray, Math.max(capacity, 2 * this.mArray.length));
+    }
+
+}
@@ -0,0 +1,58 @@
+package com.tks.mqoviewert;
+
+/**
+ * モデルビュー投影行列から求めた視錐台の6つの平面
+ * 平面はモデル座標系で表すので、BoundingVolumeを変換せずにそのまま判定できる
+ */
+public class Frustum {
+    // 平面(a, b, c, d)×6。ax + by + cz + d >= 0 が視錐台の内側(左、右、下、上、手前、奥の順)
+    private final float[] mPlanes = new float[24];
+
+    /**
+     * モデルビュー投影行列から平面を求める
+     * @param m モデルビュー投影行列(android.opengl.Matrixと同じ列優先)
+     */
+    public void set(float[] m) {
+        for (int i = 0; i < 3; i++) {   // 行0(x)、行1(y)、行2(z)
+            for (int s = 0; s < 2; s++) {
+                float sign = s == 0 ? 1.0f : -1.0f;     // 行3 + 行i、行3 - 行i
+                int p = 4 * (2 * i + s);
+                for (int k = 0; k < 4; k++) this.mPlanes[p + k] = m[4 * k + 3] + sign * m[4 * k + i];
+                // 球の判定で距離として使えるように正規化する
+                float length = (float)Math.sqrt(this.mPlanes[p] * this.mPlanes[p] + this.mPlanes[p + 1] * this.mPlanes[p + 1]
+                                                + this.mPlanes[p + 2] * this.mPlanes[p + 2]);
+                if (length > 0)
+                    for (int k = 0; k < 4; k++) this.mPlanes[p + k] /= length;
+            }
+        }
+    }
+
+    /**
+     * 視錐台と交わるか(外にあると判定しきれない場合もtrue)
+     * @param bounds モデル座標系の境界
+     * @return 一部でも視錐台の中にありうればtrue
+     */
+    public boolean intersects(BoundingVolume bounds) {
+        if (bounds.isEmpty()) return false;
+        float[] c = bounds.center;
+        boolean inside = true;  // 球が全部の平面の内側にあるか
+        for (int p = 0; p < 24; p += 4) {
+            float a = this.mPlanes[p], b = this.mPlanes[p + 1], cc = this.mPlanes[p + 2], d = this.mPlanes[p + 3];
+            float distance = a * c[0] + b * c[1] + cc * c[2] + d;
+            if (distance < -bounds.radius) return false;    // 球が平面の外側
+            if (distance < bounds.radius) inside = false;
+        }
+        if (inside) return true;
+
+        // 球が平面にかかっている場合は、箱の平面の内側に最も出ている頂点で判定する
+        float[] min = bounds.min, max = bounds.max;
+        for (int p = 0; p < 24; p += 4) {
+            float a = this.mPlanes[p], b = this.mPlanes[p + 1], cc = this.mPlanes[p + 2], d = this.mPlanes[p + 3];
+            float x = a >= 0 ? max[0] : min[0];
+            float y = b >= 0 ? max[1] : min[1];
+            float z = cc >= 0 ? max[2] : min[2];
+            if (a * x + b * y + cc * z + d < 0) return false;
+        }
+        return true;
+    }
+}
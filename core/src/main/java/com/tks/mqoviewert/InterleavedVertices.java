@@ -0,0 +1,228 @@
+package com.tks.mqoviewert;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 描画情報の頂点座標、法線、色、UVを1つのバッファに詰めて並べたもの
+ *
+ * 通常の形式(1頂点24バイト、UVがfloatなら28バイト)
+ *   座標はfloat×3、法線は正規化したbyte×3(+詰め物)、色はunsigned byte×4、
+ *   UVは[0, 1]に収まっていれば正規化したunsigned short×2、収まっていなければfloat×2
+ * 圧縮した形式(1頂点20バイト、UVがfloatなら24バイト)
+ *   座標は描画情報の範囲(バウンディングボックス)を65535等分した正規化unsigned short×3(+詰め物)、
+ *   法線は八面体に投影した2成分の正規化short×2、色とUVは通常の形式と同じ
+ *   シェーダで 座標 = a_Position.xyz * positionScale + positionBias として戻し、法線は八面体から戻す
+ * floatの配列4つ(1頂点48バイト)に比べて半分以下で済む
+ */
+public class InterleavedVertices {
+    // 要素の型(GLES20の定数と同じ値)
+    public static final int BYTE = 0x1400;
+    public static final int UNSIGNED_BYTE = 0x1401;
+    public static final int SHORT = 0x1402;
+    public static final int UNSIGNED_SHORT = 0x1403;
+    public static final int FLOAT = 0x1406;
+
+    public ByteBuffer buffer;   // 詰めた頂点(ダイレクトバッファ、ネイティブのバイト順)
+    public boolean compressed;  // 圧縮した形式か
+    public int stride;          // 1頂点のバイト数
+
+    // 1頂点の中での各属性の位置(バイト)と型
+    public int positionOffset;
+    public int positionType;    // FLOATか、圧縮した形式ならUNSIGNED_SHORT(正規化)
+    public int normalOffset;
+    public int normalSize;      // 法線の成分数(通常は3、圧縮した形式は八面体の2)
+    public int normalType;      // BYTEか、圧縮した形式ならSHORT(どちらも正規化)
+    public int colorOffset;     // 色はUNSIGNED_BYTE×4(正規化)
+    public int uvOffset;
+    public int uvType;          // UVの型(UNSIGNED_SHORTなら正規化、FLOATならそのまま)
+
+    // 圧縮した座標を戻すための値(通常の形式なら倍率1、ずれ0)
+    public float[] positionScale = {1.0f, 1.0f, 1.0f};
+    public float[] positionBias = {0.0f, 0.0f, 0.0f};
+
+    // 詰めたことによる誤差
+    public float maxPositionError;  // 座標の最大誤差(モデルの座標の単位)
+    public float maxNormalError;    // 法線の向きの最大誤差(度)
+
+    /**
+     * 描画情報の頂点を通常の形式で詰めて並べる
+     * @param info 描画情報
+     * @return 詰めた頂点
+     */
+    public static InterleavedVertices pack(MQODoc.DrawingInfo info) {
+        return pack(info, false);
+    }
+
+    /**
+     * 描画情報の頂点を詰めて並べる
+     * @param info 描画情報
+     * @param compress 座標と法線を圧縮するか
+     * @return 詰めた頂点
+     */
+    public static InterleavedVertices pack(MQODoc.DrawingInfo info, boolean compress) {
+        int n = info.vertices.length / 3;
+        InterleavedVertices ret = new InterleavedVertices();
+        ret.compressed = compress;
+        ret.positionOffset = 0;
+        if (compress) {
+            ret.positionType = UNSIGNED_SHORT;
+            ret.normalOffset = 8;
+            ret.normalSize = 2;
+            ret.normalType = SHORT;
+            ret.colorOffset = 12;
+            ret.uvOffset = 16;
+            ret.setBounds(info.bounds != null ? info.bounds : new BoundingVolume(info.vertices));
+        } else {
+            ret.positionType = FLOAT;
+            ret.normalOffset = 12;
+            ret.normalSize = 3;
+            ret.normalType = BYTE;
+            ret.colorOffset = 16;
+            ret.uvOffset = 20;
+        }
+        ret.uvType = isNormalized(info.uvs) ? UNSIGNED_SHORT : FLOAT;
+        ret.stride = ret.uvOffset + (ret.uvType == FLOAT ? 8 : 4);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(ret.stride * n);
+        buffer.order(ByteOrder.nativeOrder());
+        float[] normal = new float[3];
+        double minDot = 1.0;    // 元の法線と詰めた法線の内積の最小値(1に近いので倍精度で求める)
+        for (int i = 0; i < n; i++) {
+            int p = ret.stride * i;
+
+            // 座標
+            if (compress) {
+                for (int k = 0; k < 3; k++) {
+                    float scale = ret.positionScale[k];
+                    int q = scale > 0 ? Math.round((info.vertices[3 * i + k] - ret.positionBias[k]) / scale * 65535.0f) : 0;
+                    buffer.putShort(p + 2 * k, (short)q);
+                    float decoded = (q / 65535.0f) * scale + ret.positionBias[k];
+                    ret.maxPositionError = Math.max(ret.maxPositionError, Math.abs(decoded - info.vertices[3 * i + k]));
+                }
+                buffer.putShort(p + 6, (short)0);
+            } else {
+                for (int k = 0; k < 3; k++)
+                    buffer.putFloat(p + 4 * k, info.vertices[3 * i + k]);
+            }
+
+            // 法線(面の法線の合計なので、長さを1にしてから詰める)
+            normal[0] = info.normals[3 * i];
+            normal[1] = info.normals[3 * i + 1];
+            normal[2] = info.normals[3 * i + 2];
+            float length = (float)Math.sqrt(normal[0] * normal[0] + normal[1] * normal[1] + normal[2] * normal[2]);
+            if (length > 0) {
+                normal[0] /= length;
+                normal[1] /= length;
+                normal[2] /= length;
+            }
+            double dot;
+            if (compress) {
+                dot = putOctahedral(buffer, p + ret.normalOffset, normal);
+            } else {
+                dot = 0.0;
+                double decodedLength = 0.0;
+                for (int k = 0; k < 3; k++) {
+                    byte q = (byte)encodeSnorm(normal[k], 127);
+                    buffer.put(p + ret.normalOffset + k, q);
+                    double decoded = decodeSnorm(q, 127);
+                    dot += normal[k] * decoded;
+                    decodedLength += decoded * decoded;
+                }
+                buffer.put(p + ret.normalOffset + 3, (byte)0);
+                double normalLength = Math.sqrt((double)normal[0] * normal[0] + (double)normal[1] * normal[1] + (double)normal[2] * normal[2]);
+                dot = decodedLength > 0 ? dot / (Math.sqrt(decodedLength) * normalLength) : 1.0;
+            }
+            if (length > 0) minDot = Math.min(minDot, dot);
+
+            // 色
+            for (int k = 0; k < 4; k++)
+                buffer.put(p + ret.colorOffset + k, (byte)Math.round(clamp(info.colors[4 * i + k]) * 255.0f));
+
+            // UV
+            if (ret.uvType == FLOAT) {
+                buffer.putFloat(p + ret.uvOffset, info.uvs[2 * i]);
+                buffer.putFloat(p + ret.uvOffset + 4, info.uvs[2 * i + 1]);
+            } else {
+                buffer.putShort(p + ret.uvOffset, (short)Math.round(info.uvs[2 * i] * 65535.0f));
+                buffer.putShort(p + ret.uvOffset + 2, (short)Math.round(info.uvs[2 * i + 1] * 65535.0f));
+            }
+        }
+        ret.maxNormalError = (float)Math.toDegrees(Math.acos(Math.min(1.0, minDot)));
+        ret.buffer = buffer;
+        return ret;
+    }
+
+    // 座標の範囲から、圧縮した座標を戻すための倍率とずれを求める
+    private void setBounds(BoundingVolume bounds) {
+        for (int k = 0; k < 3; k++) {
+            this.positionBias[k] = bounds.min[k];   // 頂点がなければ0
+            this.positionScale[k] = bounds.max[k] - bounds.min[k];
+        }
+    }
+
+    /**
+     * 長さ1の法線を八面体に投影した2成分にして、正規化shortで書き込む
+     * @return 元の法線と、書き込んだ値から戻した法線の内積
+     */
+    private static double putOctahedral(ByteBuffer buffer, int offset, float[] n) {
+        float l1 = Math.abs(n[0]) + Math.abs(n[1]) + Math.abs(n[2]);
+        float x = 0.0f, y = 0.0f;
+        if (l1 > 0) {
+            x = n[0] / l1;
+            y = n[1] / l1;
+            if (n[2] < 0) {     // 下半分は折り返す
+                float ox = (1.0f - Math.abs(y)) * signNotZero(x);
+                float oy = (1.0f - Math.abs(x)) * signNotZero(y);
+                x = ox;
+                y = oy;
+            }
+        }
+        short qx = (short)encodeSnorm(x, 32767);
+        short qy = (short)encodeSnorm(y, 32767);
+        buffer.putShort(offset, qx);
+        buffer.putShort(offset + 2, qy);
+
+        // GLが頂点属性を戻す式と、シェーダと同じ方法で戻す
+        double dx = decodeSnorm(qx, 32767), dy = decodeSnorm(qy, 32767);
+        double dz = 1.0 - Math.abs(dx) - Math.abs(dy);
+        if (dz < 0) {
+            double ox = (1.0 - Math.abs(dy)) * (dx >= 0.0 ? 1.0 : -1.0);
+            double oy = (1.0 - Math.abs(dx)) * (dy >= 0.0 ? 1.0 : -1.0);
+            dx = ox;
+            dy = oy;
+        }
+        double length = Math.sqrt(dx * dx + dy * dy + dz * dz) * Math.sqrt((double)n[0] * n[0] + (double)n[1] * n[1] + (double)n[2] * n[2]);
+        return (n[0] * dx + n[1] * dy + n[2] * dz) / length;
+    }
+
+    // 符号付き正規化整数(最大値max)に詰める。OpenGL ES 2.0は(2c + 1) / (2 * max + 1)で戻すので、それに合わせて丸める
+    static int encodeSnorm(float value, int max) {
+        int q = Math.round((clamp(value, -1.0f, 1.0f) * (2 * max + 1) - 1.0f) * 0.5f);
+        return Math.max(-max - 1, Math.min(max, q));
+    }
+
+    // 符号付き正規化整数を、OpenGL ES 2.0が頂点属性を戻す式で戻す
+    static double decodeSnorm(int q, int max) {
+        return (2.0 * q + 1.0) / (2.0 * max + 1.0);
+    }
+
+    // 全部の値が[0, 1]に収まっているか
+    private static boolean isNormalized(float[] values) {
+        for (int i = 0; i < values.length; i++)
+            if (!(values[i] >= 0.0f && values[i] <= 1.0f)) return false;
+        return true;
+    }
+
+    private static float signNotZero(float value) {
+        return value >= 0.0f ? 1.0f : -1.0f;
+    }
+
+    private static float clamp(float value) {
+        return clamp(value, 0.0f, 1.0f);
+    }
+
+    private static float clamp(float value, float min, float max) {
+        return value < min ? min : (value > max ? max : value);
+    }
+}
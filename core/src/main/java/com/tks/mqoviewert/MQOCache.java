@@ -0,0 +1,344 @@
+package com.tks.mqoviewert;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * MQODoc.getDrawingInfos()の結果をバイナリ形式で保存し、次回以降の読み込みでテキスト解析を省くキャッシュ
+ *
+ * ファイル形式(リトルエンディアン)
+ *   int    MAGIC
+ *   int    VERSION
+ *   int    options(描画情報の作り方を表す値。呼び出し側が決める)
+ *   int    ハッシュのバイト数 + 元ファイルのSHA-1(4バイト境界まで詰め物)
+ *   int    これ以降(DrawingInfoの数から)のバイト数
+ *   int    これ以降のCRC32(キャッシュ自体が壊れていないかを調べる。SHA-1は元ファイルのもの)
+ *   int    DrawingInfoの数
+ *   DrawingInfoごとに
+ *     int  テクスチャ名のバイト数(nullなら-1) + UTF-8のテクスチャ名(4バイト境界まで詰め物)
+ *     int  Objectの番号、詳細度
+ *     int  vertices, normals, colors, uvs, indicesの要素数
+ *     float[] vertices, normals, colors, uvs / int[] indices
+ */
+public class MQOCache {
+    private static final int MAGIC = 0x434F514D;   // "MQOC"
+    private static final int VERSION = 5;           // 形式やgetDrawingInfos()の結果を変えたら増やす
+    private static final String SUFFIX = ".mqoc";
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private final File mDir;    // キャッシュを置くディレクトリ
+
+    // コンストラクタ
+    public MQOCache(File dir) {
+        this.mDir = dir;
+    }
+
+    /**
+     * 描画情報の作り方を表す値を求める(アプリと変換ツールで同じ値になるよう、ここで決める)
+     * @param weldVertices 同じ頂点をまとめるか(MQODoc.setWeldVertices())
+     * @param uintIndices 32ビットのインデックスを使うか(使わなければMQODoc.MAX_SHORT_INDEX_VERTICESごとに分割する)
+     * @param perObject Objectごとに描画情報を作るか(MQODoc.setOnObjectListener())
+     * @param optimizeVertexCache 頂点キャッシュに合わせて並べ替えるか(MQODoc.setOptimizeVertexCache())
+     * @param lodRatios 詳細度の割合(MQODoc.setLodRatios()。作らなければnull)
+     * @return 描画情報の作り方を表す値
+     */
+    public static int options(boolean weldVertices, boolean uintIndices, boolean perObject, boolean optimizeVertexCache, float[] lodRatios) {
+        return (weldVertices ? 1 : 0) | (uintIndices ? 2 : 0) | (perObject ? 4 : 0)
+                | (optimizeVertexCache ? 16 : 0) | (lodRatios != null ? 8 ^ (Arrays.hashCode(lodRatios) << 5) : 0);
+    }
+
+    /**
+     * バッファのposition～limitの内容のハッシュを求める(バッファのpositionは変えない)
+     * @param source 元ファイルの内容
+     * @return SHA-1ハッシュ
+     */
+    public static byte[] hash(ByteBuffer source) {
+        MessageDigest digest = newDigest();
+        digest.update(source.duplicate());
+        return digest.digest();
+    }
+
+    /**
+     * ストリームの内容のハッシュを求める
+     * @param inputStream 元ファイルの内容
+     * @return SHA-1ハッシュ
+     */
+    public static byte[] hash(InputStream inputStream) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = inputStream.read(buffer)) >= 0) digest.update(buffer, 0, n);
+        return digest.digest();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * キャッシュから描画情報を読み込む
+     * 元ファイルのハッシュや形式が一致しないキャッシュは古いものとして削除する
+     * @param name 元ファイルの名前
+     * @param hash 元ファイルのハッシュ
+     * @param options 描画情報の作り方を表す値
+     * @return 描画情報。キャッシュがないか古い場合はnull
+     */
+    public ArrayList<MQODoc.DrawingInfo> read(String name, byte[] hash, int options) {
+        File file = this.getFile(name);
+        if (!file.isFile()) return null;
+
+        ArrayList<MQODoc.DrawingInfo> drawingInfos = null;
+        try {
+            FileInputStream inputStream = new FileInputStream(file);
+            try {
+                FileChannel channel = inputStream.getChannel();
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                drawingInfos = readDrawingInfos(buffer, hash, options);
+            } finally {
+                inputStream.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (BufferUnderflowException e) {
+            // 途中で切れているキャッシュ
+        } catch (IllegalArgumentException e) {
+            // 壊れているキャッシュ
+        } catch (NegativeArraySizeException e) {
+            // 壊れているキャッシュ
+        }
+
+        if (drawingInfos == null) file.delete(); // 古いか壊れているので無効にする
+        return drawingInfos;
+    }
+
+    /**
+     * 描画情報をキャッシュに書き込む
+     * @param name 元ファイルの名前
+     * @param hash 元ファイルのハッシュ
+     * @param options 描画情報の作り方を表す値
+     * @param drawingInfos 描画情報
+     */
+    public void write(String name, byte[] hash, int options, List<MQODoc.DrawingInfo> drawingInfos) throws IOException {
+        if (!this.mDir.isDirectory() && !this.mDir.mkdirs()) throw new IOException("failed to create " + this.mDir);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(computeSize(hash, drawingInfos));
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        writeDrawingInfos(buffer, hash, options, drawingInfos);
+        buffer.flip();
+
+        // 書きかけのファイルを読まないよう、一時ファイルに書いてから名前を変える
+        File file = this.getFile(name);
+        File tmp = new File(this.mDir, file.getName() + ".tmp");
+        FileOutputStream outputStream = new FileOutputStream(tmp);
+        try {
+            FileChannel channel = outputStream.getChannel();
+            while (buffer.hasRemaining()) channel.write(buffer);
+        } finally {
+            outputStream.close();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("failed to rename " + tmp);
+        }
+    }
+
+    /**
+     * ファイルが、元ファイルのハッシュと描画情報の作り方の一致するキャッシュ形式か
+     * 先頭だけ読んで調べる(長さは調べるが、中身のチェックサムは読み込む時に調べる)
+     * @param file キャッシュ形式のファイル
+     * @param hash 元ファイルのハッシュ
+     * @param options 描画情報の作り方を表す値
+     * @return 一致すればtrue。ファイルがないか読めない場合はfalse
+     */
+    public static boolean isUpToDate(File file, byte[] hash, int options) {
+        if (!file.isFile()) return false;
+        try {
+            FileInputStream inputStream = new FileInputStream(file);
+            try {
+                byte[] header = new byte[4 * 4 + align4(hash.length) + 4];
+                int length = 0, n;
+                while (length < header.length && (n = inputStream.read(header, length, header.length - length)) > 0) length += n;
+                if (length < header.length) return false;
+                ByteBuffer buffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+                if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getInt() != options) return false;
+                if (buffer.getInt() != hash.length) return false;
+                byte[] cachedHash = new byte[hash.length];
+                buffer.get(cachedHash);
+                if (!Arrays.equals(cachedHash, hash)) return false;
+                skipPadding(buffer);
+                return header.length + 4 + (long)buffer.getInt() == file.length();  // 途中で切れていないか
+            } finally {
+                inputStream.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // キャッシュファイルを削除する
+    public void invalidate(String name) {
+        this.getFile(name).delete();
+    }
+
+    private File getFile(String name) {
+        return new File(this.mDir, name.replace('/', '_').replace('\\', '_') + SUFFIX);
+    }
+
+    //------------------------------------------------------------------------------
+    // 読み書きの本体(バッファはリトルエンディアンに設定しておくこと)
+    // 読み込みでは、形式、元ファイル、作り方が違うか、長さやチェックサムが合わない場合はnull
+    //------------------------------------------------------------------------------
+    public static ArrayList<MQODoc.DrawingInfo> readDrawingInfos(ByteBuffer buffer, byte[] hash, int options) {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getInt() != options) return null;
+        if (buffer.getInt() != hash.length) return null;
+        byte[] cachedHash = new byte[hash.length];
+        buffer.get(cachedHash);
+        skipPadding(buffer);
+        if (!Arrays.equals(cachedHash, hash)) return null;   // 元ファイルが変わっている
+
+        int payloadLength = buffer.getInt();
+        int checksum = buffer.getInt();
+        if (payloadLength != buffer.remaining()) return null;    // 途中で切れているか後ろにごみがある
+        if (checksum(buffer, buffer.position(), buffer.limit()) != checksum) return null;    // 壊れている
+
+        // チェックサムが合っても、配列を確保する前に長さを調べる(巨大な配列を確保しようとしない)
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / (8 * 4)) return null;
+        ArrayList<MQODoc.DrawingInfo> drawingInfos = new ArrayList<MQODoc.DrawingInfo>(count);
+        for (int i = 0; i < count; i++) {
+            String texture = null;
+            int length = buffer.getInt();
+            if (length < -1 || length > buffer.remaining()) return null;
+            if (length >= 0) {
+                byte[] bytes = new byte[length];
+                buffer.get(bytes);
+                texture = new String(bytes, CHARSET);
+                skipPadding(buffer);
+            }
+            int object = buffer.getInt();
+            int lod = buffer.getInt();
+            int[] lengths = new int[5];     // vertices, normals, colors, uvs, indicesの要素数
+            long total = 0;
+            for (int j = 0; j < lengths.length; j++) {
+                lengths[j] = buffer.getInt();
+                if (lengths[j] < 0) return null;
+                total += lengths[j];
+            }
+            if (total > buffer.remaining() / 4) return null;
+            float[] vertices = new float[lengths[0]];
+            float[] normals = new float[lengths[1]];
+            float[] colors = new float[lengths[2]];
+            float[] uvs = new float[lengths[3]];
+            int[] indices = new int[lengths[4]];
+            getFloats(buffer, vertices);
+            getFloats(buffer, normals);
+            getFloats(buffer, colors);
+            getFloats(buffer, uvs);
+            buffer.asIntBuffer().get(indices);
+            buffer.position(buffer.position() + 4 * indices.length);
+            MQODoc.DrawingInfo info = new MQODoc.DrawingInfo(vertices, normals, colors, uvs, indices, texture);
+            info.object = object;
+            info.lod = lod;
+            drawingInfos.add(info);
+        }
+        return drawingInfos;
+    }
+
+    public static void writeDrawingInfos(ByteBuffer buffer, byte[] hash, int options, List<MQODoc.DrawingInfo> drawingInfos) {
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(options);
+        buffer.putInt(hash.length).put(hash);
+        putPadding(buffer);
+        int lengthPosition = buffer.position();
+        buffer.putInt(0).putInt(0);     // 長さとチェックサムは後で書く
+        int payloadStart = buffer.position();
+        buffer.putInt(drawingInfos.size());
+        for (int i = 0, n = drawingInfos.size(); i < n; i++) {
+            MQODoc.DrawingInfo info = drawingInfos.get(i);
+            if (info.texture == null) {
+                buffer.putInt(-1);
+            } else {
+                byte[] bytes = info.texture.getBytes(CHARSET);
+                buffer.putInt(bytes.length).put(bytes);
+                putPadding(buffer);
+            }
+            buffer.putInt(info.object).putInt(info.lod);
+            buffer.putInt(info.vertices.length).putInt(info.normals.length).putInt(info.colors.length)
+                  .putInt(info.uvs.length).putInt(info.indices.length);
+            putFloats(buffer, info.vertices);
+            putFloats(buffer, info.normals);
+            putFloats(buffer, info.colors);
+            putFloats(buffer, info.uvs);
+            buffer.asIntBuffer().put(info.indices);
+            buffer.position(buffer.position() + 4 * info.indices.length);
+        }
+        buffer.putInt(lengthPosition, buffer.position() - payloadStart);
+        buffer.putInt(lengthPosition + 4, checksum(buffer, payloadStart, buffer.position()));
+    }
+
+    public static int computeSize(byte[] hash, List<MQODoc.DrawingInfo> drawingInfos) {
+        int size = 4 * 4 + align4(hash.length) + 2 * 4 + 4;
+        for (int i = 0, n = drawingInfos.size(); i < n; i++) {
+            MQODoc.DrawingInfo info = drawingInfos.get(i);
+            size += 4;
+            if (info.texture != null) size += align4(info.texture.getBytes(CHARSET).length);
+            size += 7 * 4;
+            size += 4 * (info.vertices.length + info.normals.length + info.colors.length + info.uvs.length + info.indices.length);
+        }
+        return size;
+    }
+
+    // バッファのstart～endのCRC32(バッファのpositionは変えない。API 21にはCRC32.update(ByteBuffer)がないのでコピーしながら求める)
+    private static int checksum(ByteBuffer buffer, int start, int end) {
+        ByteBuffer source = buffer.duplicate();
+        source.limit(end).position(start);
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[8192];
+        while (source.hasRemaining()) {
+            int n = Math.min(chunk.length, source.remaining());
+            source.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+        }
+        return (int)crc.getValue();
+    }
+
+    private static void getFloats(ByteBuffer buffer, float[] array) {
+        buffer.asFloatBuffer().get(array);
+        buffer.position(buffer.position() + 4 * array.length);
+    }
+
+    private static void putFloats(ByteBuffer buffer, float[] array) {
+        buffer.asFloatBuffer().put(array);
+        buffer.position(buffer.position() + 4 * array.length);
+    }
+
+    private static int align4(int n) {
+        return (n + 3) & ~3;
+    }
+
+    private static void skipPadding(ByteBuffer buffer) {
+        buffer.position(align4(buffer.position()));
+    }
+
+    private static void putPadding(ByteBuffer buffer) {
+        while ((buffer.position() & 3) != 0) buffer.put((byte)0);
+    }
+}
@@ -0,0 +1,1169 @@
+package com.tks.mqoviewert;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+/**
+ * Created by jun on 2016/11/29.
+ */
+public class MQODoc {
+    public static final int MAX_SHORT_INDEX_VERTICES = 65536;  // 16ビットのインデックスで表せる頂点数
+    private static final Logger sLogger = Logger.getLogger(MQODoc.class.getName());    // Androidに依存しないのでjava.util.loggingに出す
+
+    private String[] mLines;         // ファイルを構成する1行1行からなる配列
+    private int mIndex;         // 現在解析すべき行のインデックス
+    private MQOLineReader mReader;  // ストリームから解析する場合の行リーダー
+    private boolean mParallel = true;   // Objectチャンクを複数スレッドで解析するか
+    private boolean mWeldVertices = false;  // getDrawingInfos()で同じ頂点をまとめるか
+    private int mMaxVerticesPerBatch = MAX_SHORT_INDEX_VERTICES;    // getDrawingInfos()で作る描画情報1つあたりの最大頂点数
+    private int mNumInputVertices;  // 頂点をまとめる前の頂点数
+    private int mNumOutputVertices; // 頂点をまとめた後の頂点数
+    private boolean mOptimizeVertexCache = false;   // getDrawingInfos()で三角形を頂点キャッシュに当たりやすい順に並べ替えるか
+    private long mNumTriangles;     // 並べ替えた三角形の数
+    private long mCacheMissesBefore;    // 並べ替える前の頂点キャッシュのミス数
+    private long mCacheMissesAfter;     // 並べ替えた後の頂点キャッシュのミス数
+    private long mBuildNanos;       // 描画情報を作るのにかかった時間(ナノ秒)
+    private long mListenerNanos;    // parse()中にリスナーの処理にかかった時間(ナノ秒)
+    private long mParseNanos;       // parse()で解析だけにかかった時間(ナノ秒)
+    private static ForkJoinPool sPool;  // Objectチャンクを解析するスレッドプール
+    private AtomicBoolean mCancelled = new AtomicBoolean(false);   // cancel()されたか(別スレッドの解析とも共有する)
+    private OnObjectListener mOnObjectListener;     // Objectチャンクを解析し終わるたびに呼び出すリスナー
+    private ArrayList<DrawingInfo> mObjectDrawingInfos; // リスナーに渡した描画情報(ファイル中の順番)
+    private float[] mLodRatios;     // 詳細度を下げた描画情報の三角形数の割合(nullなら作らない)
+    private Material[] mMaterials;     // Materialチャンクの情報を管理するための変数
+    private Vector<MQOObject> mObjects;       // Objectチャンクの情報を管理するための変数
+    private int mNumVertices;   // 総頂点数
+    private int mNumIndices;    // 総インデックス数
+
+    // コンストラクタ
+    public MQODoc() {
+    }
+
+    /**
+     * メモリ上のバッファ(parse(File)、parse(ByteBuffer))を解析する際に、
+     * Objectチャンクを複数スレッドで解析するかを設定する(既定はtrue)
+     * 結果は1スレッドで解析した場合と同じになる
+     */
+    public void setParallel(boolean parallel) {
+        this.mParallel = parallel;
+    }
+
+    /**
+     * getDrawingInfos()で、座標、法線、色、UVがすべて一致する頂点を1つにまとめるかを設定する(既定はfalse)
+     * まとめた結果はgetNumInputVertices()、getNumOutputVertices()で確認できる
+     */
+    public void setWeldVertices(boolean weldVertices) {
+        this.mWeldVertices = weldVertices;
+    }
+
+    /**
+     * getDrawingInfos()で、描画情報ごとに三角形と頂点をGPUの頂点キャッシュに当たりやすい順に並べ替えるかを設定する(既定はfalse)
+     * 並べ替えた効果はgetAcmrBefore()、getAcmrAfter()で確認できる
+     */
+    public void setOptimizeVertexCache(boolean optimize) {
+        this.mOptimizeVertexCache = optimize;
+    }
+
+    /**
+     * getDrawingInfos()で作る描画情報1つあたりの最大頂点数を設定する(既定はMAX_SHORT_INDEX_VERTICES)
+     * 超える場合は複数の描画情報に分割する。32ビットのインデックスで描画できるならInteger.MAX_VALUEにすれば分割しない
+     * @exception java.lang.IllegalArgumentException maxVerticesが3未満の場合に投げられます。
+     */
+    public void setMaxVerticesPerBatch(int maxVertices) {
+        if (maxVertices < 3) throw new IllegalArgumentException();
+        this.mMaxVerticesPerBatch = maxVertices;
+    }
+
+    /**
+     * 別スレッドで実行中のparse()、getDrawingInfos()を中断する
+     * 中断されたparse()はfalse、getDrawingInfos()はnullを返す。一度中断したMQODocは使えない
+     */
+    public void cancel() {
+        this.mCancelled.set(true);
+    }
+
+    /**
+     * Objectチャンクを解析し終わるたびに、そのObjectだけの描画情報を受け取るリスナー
+     * 全部のObjectを解析し終わる前から表示を始めるのに使う
+     */
+    public interface OnObjectListener {
+        /**
+         * Objectの描画情報ができた(parse()を呼び出したスレッドから、ファイル中の順番どおりに呼び出される)
+         * @param index Objectの番号
+         * @param drawingInfos このObjectだけの描画情報(面のないObjectでは呼び出さない)
+         */
+        void onObject(int index, List<DrawingInfo> drawingInfos);
+    }
+
+    /**
+     * parse()でObjectチャンクを解析し終わるたびに描画情報を作り、リスナーに渡すようにする(nullなら渡さない)
+     * 設定するとObjectごとに別の描画情報になり、getDrawingInfos()はリスナーに渡したものを順に並べて返す
+     * 描画情報の作り方はsetWeldVertices()、setMaxVerticesPerBatch()に従う
+     */
+    public void setOnObjectListener(OnObjectListener listener) {
+        this.mOnObjectListener = listener;
+    }
+
+    /**
+     * getDrawingInfos()で、Objectごとに面を減らした詳細度(LOD)の描画情報も作るようにする(nullなら作らない。既定はnull)
+     * 設定するとObjectごとに別の描画情報になり、DrawingInfo.objectとDrawingInfo.lodで見分ける
+     * 輪郭、マテリアルの境目、UVの継ぎ目は崩さないので、三角形数が割合どおりまで減らないこともある
+     * @param ratios 詳細度1, 2, ...の、元の三角形数に対する割合(大きい順)
+     * @exception java.lang.IllegalArgumentException 割合が0より大きく1以下でない場合に投げられます。
+     */
+    public void setLodRatios(float[] ratios) {
+        if (ratios != null)
+            for (int i = 0; i < ratios.length; i++)
+                if (!(ratios[i] > 0.0f && ratios[i] <= 1.0f)) throw new IllegalArgumentException();
+        this.mLodRatios = ratios != null ? ratios.clone() : null;
+    }
+
+    // cancel()されたか
+    public boolean isCancelled() {
+        return this.mCancelled.get();
+    }
+
+    // 直前のgetDrawingInfos()(リスナーを設定した場合はparse())で、頂点をまとめる前の頂点数
+    public int getNumInputVertices() {
+        return this.mNumInputVertices;
+    }
+
+    // 直前のgetDrawingInfos()(リスナーを設定した場合はparse())で、頂点をまとめた後の頂点数
+    public int getNumOutputVertices() {
+        return this.mNumOutputVertices;
+    }
+
+    // 直前のgetDrawingInfos()(リスナーを設定した場合はparse())で、三角形を並べ替える前のACMR(三角形1つあたりの頂点キャッシュのミス数)
+    public float getAcmrBefore() {
+        return this.mNumTriangles > 0 ? (float)this.mCacheMissesBefore / this.mNumTriangles : 0.0f;
+    }
+
+    // 直前のgetDrawingInfos()(リスナーを設定した場合はparse())で、三角形を並べ替えた後のACMR
+    public float getAcmrAfter() {
+        return this.mNumTriangles > 0 ? (float)this.mCacheMissesAfter / this.mNumTriangles : 0.0f;
+    }
+
+    // 直前のgetDrawingInfos()(リスナーを設定した場合はparse())で、描画情報を作るのにかかった時間(ナノ秒)
+    // リスナーを設定した場合はparse()の時間にも含まれる
+    public long getBuildNanos() {
+        return this.mBuildNanos;
+    }
+
+    // 直前のparse()で、解析だけにかかった時間(ナノ秒、描画情報を作る時間とリスナーの処理の時間は除く)
+    public long getParseNanos() {
+        return this.mParseNanos;
+    }
+
+    // 解析処理
+    public boolean parse(String fileString) {
+        String[] lines = fileString.split("\n");  // 行に分解し配列として格納
+        this.mLines = new String[lines.length + 1];
+        System.arraycopy(lines, 0, mLines, 0, lines.length);
+        this.mLines[lines.length] = null;       // 最後にnullを追加しておく
+        this.mIndex = 0;              // 行のインデックスを初期化
+        this.mReader = null;
+
+        return this.parseChunks();
+    }
+
+    // 解析処理(ストリームから少しずつ読み込みながら解析する)
+    public boolean parse(InputStream inputStream) throws IOException {
+        return this.parse(new MQOLineReader(inputStream));
+    }
+
+    // 解析処理(チャンネルから少しずつ読み込みながら解析する)
+    public boolean parse(ReadableByteChannel channel) throws IOException {
+        return this.parse(new MQOLineReader(channel));
+    }
+
+    // 解析処理(ファイルをメモリマップし、コピーや文字コード変換をせずに解析する)
+    public boolean parse(File file) throws IOException {
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            FileChannel channel = inputStream.getChannel();
+            return this.parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            inputStream.close();  // マップした領域はクローズ後も有効
+        }
+    }
+
+    // 解析処理(メモリ上のバッファのposition～limitを解析する)
+    public boolean parse(ByteBuffer buffer) throws IOException {
+        return this.parse(new MQOLineReader(buffer));
+    }
+
+    private boolean parse(MQOLineReader reader) throws IOException {
+        this.mLines = null;           // ファイル全体は保持しない
+        this.mIndex = 0;
+        this.mReader = reader;
+        try {
+            boolean result = this.parseChunks();
+            if (reader.getException() != null) throw reader.getException(); // 途中で読み込みに失敗した
+            return result;
+        } finally {
+            this.mReader = null;
+        }
+    }
+
+    // チャンクを順に解析する
+    private boolean parseChunks() {
+        long start = System.nanoTime();
+        try {
+            return this.readChunks();
+        } catch (CancellationException e) {
+            return false;   // cancel()で中断された
+        } finally {
+            this.mParseNanos = System.nanoTime() - start - this.mBuildNanos - this.mListenerNanos;
+        }
+    }
+
+    private boolean readChunks() {
+        this.mMaterials = null;       // Materialチャンクの情報を初期化
+        this.mObjects = new Vector<MQOObject>(); // Objectチャンクの情報を初期化
+        this.mNumVertices = 0;        // 総頂点数を0に
+        this.mNumIndices = 0;         // 総インデックス数を0に
+        this.mObjectDrawingInfos = this.mOnObjectListener != null ? new ArrayList<DrawingInfo>() : null;
+        this.mNumInputVertices = 0;
+        this.mNumOutputVertices = 0;
+        this.mNumTriangles = 0;
+        this.mCacheMissesBefore = 0;
+        this.mCacheMissesAfter = 0;
+        this.mBuildNanos = 0;
+        this.mListenerNanos = 0;
+
+        // メモリ上のバッファなら、Objectチャンクは範囲だけ調べて別スレッドで解析する
+        boolean parallel = this.mParallel && this.mReader != null && this.mReader.isRandomAccess()
+                           && Runtime.getRuntime().availableProcessors() > 1;
+        ArrayList<ForkJoinTask<MQODoc>> tasks = new ArrayList<ForkJoinTask<MQODoc>>();
+
+        // 1行ずつ解析していく
+        CharSequence line; // 解析する行の文字列
+        MQOObject obj;  // Objectチャンクを解析したもの
+        while ((line = this.nextLine()) != null) {
+            if (contains(line, "Scene")) {    // Sceneチャンクの読み飛ばし(使わない)
+                this.skipToEndOfChunk();
+                continue; // 次の行へ
+            }
+            if (contains(line, "Material")) { // Materialチャンクの読み込み
+                this.mMaterials = this.readMaterials(line);
+                continue; // 次の行へ
+            }
+            if (contains(line, "Object")) {   // Objectチャンクの読み込み
+                if (parallel) {
+                    tasks.add(getPool().submit(new ObjectParser(this.mReader.skipChunk(), this.mCancelled)));
+                    continue; // 解析の完了は後でまとめて待つ
+                }
+                if ((obj = this.readObjects()) != null) this.mObjects.add(obj);
+                else return false;
+                this.publishObject(this.mObjects.size() - 1);
+                continue; // 次の行へ
+            }
+        }
+
+        return this.joinObjects(tasks);
+    }
+
+    // 別スレッドで解析したObjectチャンクを、ファイル中の順番どおりに取り込む
+    private boolean joinObjects(ArrayList<ForkJoinTask<MQODoc>> tasks) {
+        boolean result = true;
+        for (int i = 0, n = tasks.size(); i < n; i++) {
+            MQODoc doc;
+            try {
+                doc = tasks.get(i).join();
+            } catch (RuntimeException e) {
+                for (int j = i + 1; j < n; j++) tasks.get(j).cancel(false); // 残りは不要
+                throw e;
+            }
+            if (!result) continue;
+            if (doc.mObjects.isEmpty()) {
+                result = false;
+                continue;
+            }
+            this.mObjects.addAll(doc.mObjects);
+            this.mNumVertices += doc.mNumVertices;
+            this.mNumIndices += doc.mNumIndices;
+            this.publishObject(this.mObjects.size() - 1);
+        }
+        return result;
+    }
+
+    // 解析し終わったObjectの描画情報を作ってリスナーに渡す
+    private void publishObject(int index) {
+        if (this.mOnObjectListener == null) return;
+        long start = System.nanoTime();
+        ArrayList<DrawingInfo> drawingInfos = this.buildObjectDrawingInfos(index);
+        long built = System.nanoTime();
+        this.mBuildNanos += built - start;
+        if (drawingInfos == null) throw new CancellationException();
+        if (drawingInfos.isEmpty()) return;
+        this.mObjectDrawingInfos.addAll(drawingInfos);
+        this.mOnObjectListener.onObject(index, drawingInfos);
+        this.mListenerNanos += System.nanoTime() - built;
+    }
+
+    private static synchronized ForkJoinPool getPool() {
+        if (sPool == null) sPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        return sPool;
+    }
+
+    // 1つのObjectチャンクの中身を解析するタスク(結果は解析に使ったMQODocに入れて返す)
+    private static class ObjectParser implements Callable<MQODoc> {
+        private final ByteBuffer mChunk;
+        private final AtomicBoolean mCancelled;
+
+        public ObjectParser(ByteBuffer chunk, AtomicBoolean cancelled) {
+            this.mChunk = chunk;
+            this.mCancelled = cancelled;
+        }
+
+        @Override
+        public MQODoc call() {
+            MQODoc doc = new MQODoc();
+            doc.mCancelled = this.mCancelled;   // 元のMQODocと一緒に中断する
+            doc.mObjects = new Vector<MQOObject>();
+            doc.mReader = new MQOLineReader(this.mChunk);
+            MQOObject obj = doc.readObjects();
+            if (obj != null) doc.mObjects.add(obj);
+            return doc;
+        }
+    }
+
+    // 次に解析すべき行を取得する(終わりに達したらnull)
+    // cancel()されていればCancellationExceptionを投げて解析を打ち切る
+    private CharSequence nextLine() {
+        if (this.mCancelled.get()) throw new CancellationException();
+        if (this.mReader != null) return this.mReader.readLine();
+        return this.mLines[this.mIndex++];
+    }
+
+    // 行にキーワードが含まれているか調べる
+    private static boolean contains(CharSequence line, String keyword) {
+        int n = keyword.length();
+        char first = keyword.charAt(0);
+        for (int i = 0, last = line.length() - n; i <= last; i++) {
+            if (line.charAt(i) != first) continue;
+            int j = 1;
+            while (j < n && line.charAt(i + j) == keyword.charAt(j)) j++;
+            if (j == n) return true;
+        }
+        return false;
+    }
+
+    // Materialチャンクの読み込み
+    public Material[] readMaterials(CharSequence line) {
+        StringParser sp = new StringParser(line); // 行の中身を解析するStringParserオブジェクト
+
+        // 「Material 2 {」の解析
+        sp.skipToNextWord();            // "Material"を読み飛ばす(使わない)
+        int n = sp.getInt();            // マテリアル数を取得
+        Material[] materials = new Material[n];   // マテリアル情報を管理する配列を用意
+
+        // 「"mat1" col(1.000 0.000 0.000 1.000) dif(0.800) ...  power(5.00)」の解析
+        for (int i = 0; i < n; i++) {
+            sp.init(this.nextLine()); // もったいないのでspオブジェクトを再利用
+            sp.skipToNextWord();      // Material名を読み飛ばす(使わない)
+            while (sp.nextWord()) {     // 単語を文字列として切り出さずに判定する
+                if (sp.isWord("col")) {
+                    float r = sp.getFloat();
+                    float g = sp.getFloat();
+                    float b = sp.getFloat();
+                    float a = sp.getFloat();
+                    materials[i] = new Material(r, g, b, a); // Materialオブジェクトにまとめて管理
+                } else if (sp.isWord("tex")) {
+                    materials[i].texture = sp.getWord();
+                }
+            }
+        }
+        this.skipToEndOfChunk();  // チャンク終了まで読み飛ばす
+
+        return materials;         // 解析結果を返す
+    }
+
+    // Objectチャンクの読み込み
+    public MQOObject readObjects() {
+        // 「Object "obj1" {」は使用しないのでline引数は要らない
+        MQOObject mqoObject = new MQOObject(); // Objectチャンクの情報を管理するオブジェクトを用意
+
+        // Objectチャンクの中身を1行ずつ解析
+        CharSequence line;  // 解析する行の文字列
+        while ((line = this.nextLine()) != null) {
+            if (contains(line, "facet")) continue;      // faceが部分文字列のため先に読み飛ばす
+            if (contains(line, "color_type")) continue; // colorが部分文字列のため先に読み飛ばす
+            if (contains(line, "color")) {              // colorパラメータの読み込み
+                mqoObject.color = this.readColor(line);      // 「color 0.898 0.498 0.698」の解析
+                continue;
+            }
+            if (contains(line, "shading")) {            // shadingパラメータの読み込み
+                mqoObject.shading = this.readShading(line);  // 「 shading 0」の解析
+                continue;
+            }
+            if (contains(line, "vertex")) {             // vertexチャンクの読み込み
+                this.readVertices(line, mqoObject);          // 「vertex 8 {」の解析
+                continue;
+            }
+            if (contains(line, "face")) {               // faceチャンクの読み込み
+                this.readFaces(line, mqoObject);             // 「face 6 {」の解析
+                continue;
+            }
+            if (contains(line, "}")) {
+                break;  // チャンクの終わり
+            }
+        }
+
+        // 読み込んだFaceチャンクの法線を計算
+        mqoObject.setNormals();
+        mqoObject.bounds = new BoundingVolume(mqoObject.positions, mqoObject.numVertices);
+
+        return mqoObject;
+    }
+
+    // 色情報の読み込み(「color 0.898 0.498 0.698」の解析)
+    public Material readColor(CharSequence line) {
+        StringParser sp = new StringParser(line);
+        sp.skipToNextWord();  // "color"を読み飛ばす
+        float r = sp.getFloat();
+        float g = sp.getFloat();
+        float b = sp.getFloat();
+
+        return new Material(r, g, b, 1.0f);
+    }
+
+    // Shading方法の読み込み(「 shading 0」の解析)
+    public int readShading(CharSequence line) {
+        StringParser sp = new StringParser(line);
+        sp.skipToNextWord();  // "shading"を読み飛ばす
+
+        return sp.getInt();   // 数字の取り出し
+    }
+
+    // vertexチャンクの読み込み
+    public void readVertices(CharSequence line, MQOObject mqoObject) {
+        StringParser sp = new StringParser(line);
+        // 「vertex 8 {」の解析
+        sp.skipToNextWord();         // "vertex"を読み飛ばす
+        int n = sp.getInt();         // 頂点数を取得
+        float[] positions = new float[3 * n]; // 頂点座標を管理するための配列を用意
+        // 頂点座標の取り出し(「-100.0000 100.0000 100.0000」の解析)
+        for (int i = 0; i < n; i++) {
+            sp.init(this.nextLine());
+            positions[3 * i]     = sp.getFloat();
+            positions[3 * i + 1] = sp.getFloat();
+            positions[3 * i + 2] = sp.getFloat();
+        }
+        this.skipToEndOfChunk(); // チャンク終了まで読み飛ばす
+
+        mqoObject.numVertices = n;
+        mqoObject.positions = positions;
+        mqoObject.normals = new float[3 * n];
+    }
+
+    // face(面情報)チャンクの読み込み
+    public void readFaces(CharSequence line, MQOObject mqoObject) {
+        StringParser sp = new StringParser(line);
+        // 「 face 6 {」の解析
+        sp.skipToNextWord();             // "face"の読み飛ばし
+        int numFaces = sp.getInt();     // フェイス数の取得
+        // face情報を管理するための配列を用意(頂点数は四角形として多めに取っておく)
+        int[] faceOffsets = new int[numFaces + 1];
+        int[] indices = new int[4 * numFaces];
+        int[] materials = new int[numFaces];
+        float[] uvs = new float[2 * 4 * numFaces];
+
+        // 「4 V(0 2 3 1) M(0) UV(0.00000 0.00000 ... 1.00000)」の解析
+        int f = 0;          // 読み込んだ面の数
+        int offset = 0;     // 次の面の頂点インデックスの格納位置
+        for (int i = 0; i < numFaces; i++) {
+            sp.init(this.nextLine());
+            int n = sp.getInt();  // 面の頂点数
+            if (n != 3 && n != 4) { sLogger.warning("error face"); continue; }
+            int mIndex = -1;
+            while (sp.nextWord()) {
+                if (sp.isWord("V")) {
+                    for (int j = 0; j < n; j++) indices[offset + j] = sp.getInt();
+                } else if (sp.isWord("M")) {
+                    mIndex = sp.getInt();
+                } else if (sp.isWord("UV")) {
+                    for (int j = 0; j < 2 * n; j++) uvs[2 * offset + j] = sp.getFloat();
+                }
+            }
+            faceOffsets[f] = offset;
+            materials[f] = mIndex;
+            offset += n;
+            f++;
+            this.updateNumVertices(n); // 総頂点数と総インデックス数を更新
+        }
+        faceOffsets[f] = offset;
+        this.skipToEndOfChunk();     // チャンク終了まで読み飛ばす
+
+        // 三角形や読み飛ばした面があった分、配列を詰める
+        if (f < numFaces) {
+            faceOffsets = Arrays.copyOf(faceOffsets, f + 1);
+            materials = Arrays.copyOf(materials, f);
+        }
+        if (offset < indices.length) {
+            indices = Arrays.copyOf(indices, offset);
+            uvs = Arrays.copyOf(uvs, 2 * offset);
+        }
+        mqoObject.numFaces = f;
+        mqoObject.faceOffsets = faceOffsets;
+        mqoObject.indices = indices;
+        mqoObject.materials = materials;
+        mqoObject.uvs = uvs;
+    }
+
+    // 総頂点数と総インデックス数を更新する
+    public void updateNumVertices(int numIndices) {
+        this.mNumVertices += numIndices;         // 総頂点数に加算
+        if (numIndices == 3)
+            this.mNumIndices += numIndices;     // つまり3(三角形で描画)
+        else // numIndicesが4の場合(四角形)
+            this.mNumIndices += numIndices * 2; // つまり6(三角形2つで描画)
+    }
+
+    // チャンク終了まで読み飛ばす
+    public void skipToEndOfChunk() {
+        CharSequence line;
+        while ((line = this.nextLine()) != null)
+            if (contains(line, "}")) break;
+    }
+
+    // 解析したObject(ファイル中の順番)
+    public List<MQOObject> getObjects() {
+        return this.mObjects;
+    }
+
+    //------------------------------------------------------------------------------
+    // モデルの描画用の情報を取得する
+    // マテリアルのテクスチャごとに1つの描画情報にまとめる(テクスチャのない面は先頭の描画情報にまとめる)
+    // setOnObjectListener()でリスナーを設定して解析した場合は、Objectごとに作った描画情報を順に並べて返す
+    // cancel()で中断された場合はnull
+    public ArrayList<DrawingInfo> getDrawingInfos() {
+        if (this.mCancelled.get()) return null;
+        if (this.mObjectDrawingInfos != null) return new ArrayList<DrawingInfo>(this.mObjectDrawingInfos);  // もう作ってある
+
+        this.mNumInputVertices = 0;
+        this.mNumOutputVertices = 0;
+        this.mNumTriangles = 0;
+        this.mCacheMissesBefore = 0;
+        this.mCacheMissesAfter = 0;
+        long start = System.nanoTime();
+        try {
+            if (this.mLodRatios == null) return this.buildDrawingInfos(this.mObjects);
+
+            // 詳細度はObjectごとに選ぶので、Objectごとに作る
+            ArrayList<DrawingInfo> ret = new ArrayList<DrawingInfo>();
+            for (int i = 0; i < this.mObjects.size(); i++) {
+                ArrayList<DrawingInfo> drawingInfos = this.buildObjectDrawingInfos(i);
+                if (drawingInfos == null) return null;
+                ret.addAll(drawingInfos);
+            }
+            return ret;
+        } finally {
+            this.mBuildNanos = System.nanoTime() - start;
+        }
+    }
+
+    // 1つのObjectの描画情報を作る(詳細度を下げたものも続けて並べる。中断された場合はnull)
+    private ArrayList<DrawingInfo> buildObjectDrawingInfos(int index) {
+        MQOObject obj = this.mObjects.get(index);
+        ArrayList<MQOObject> objects = new ArrayList<MQOObject>(1);
+        objects.add(obj);
+        ArrayList<DrawingInfo> ret = this.buildDrawingInfos(objects);
+        if (ret == null) return null;
+        setLevel(ret, index, 0);
+        if (this.mLodRatios == null) return ret;
+
+        int numInputVertices = this.mNumInputVertices;     // 詳細度を下げたものは頂点数やACMRに数えない
+        int numOutputVertices = this.mNumOutputVertices;
+        long numOptimizedTriangles = this.mNumTriangles;
+        long cacheMissesBefore = this.mCacheMissesBefore;
+        long cacheMissesAfter = this.mCacheMissesAfter;
+        int numTriangles = MeshSimplifier.countTriangles(obj);
+        MQOObject previous = obj;
+        for (int l = 0; l < this.mLodRatios.length; l++) {
+            if (this.mCancelled.get()) return null;
+            // 1つ前の詳細度からさらに減らす(元の面から減らし直すより速い)
+            MQOObject simplified = new MQOObject();
+            MeshSimplifier.simplify(previous, (int)(numTriangles * this.mLodRatios[l]), simplified);
+            previous = simplified;
+            objects.set(0, simplified);
+            ArrayList<DrawingInfo> lod = this.buildDrawingInfos(objects);
+            if (lod == null) return null;
+            setLevel(lod, index, l + 1);
+            ret.addAll(lod);
+        }
+        this.mNumInputVertices = numInputVertices;
+        this.mNumOutputVertices = numOutputVertices;
+        this.mNumTriangles = numOptimizedTriangles;
+        this.mCacheMissesBefore = cacheMissesBefore;
+        this.mCacheMissesAfter = cacheMissesAfter;
+        return ret;
+    }
+
+    private static void setLevel(List<DrawingInfo> drawingInfos, int object, int lod) {
+        for (int i = 0; i < drawingInfos.size(); i++) {
+            drawingInfos.get(i).object = object;
+            drawingInfos.get(i).lod = lod;
+        }
+    }
+
+    // Objectの面から描画情報を作る(頂点数はmNumInputVertices、mNumOutputVertices、ACMRの元の数はmNumTriangles、mCacheMisses～に加算する)
+    private ArrayList<DrawingInfo> buildDrawingInfos(List<MQOObject> objects) {
+        // テクスチャごとの描画情報の番号を決める
+        int numMaterials = this.mMaterials != null ? this.mMaterials.length : 0;
+        int[] batchOfMaterial = new int[numMaterials];    // マテリアル番号 -> 描画情報の番号
+        ArrayList<String> textures = new ArrayList<String>();
+        textures.add(null);
+        for (int i = 0; i < numMaterials; i++) {
+            String texture = this.mMaterials[i].texture;
+            int batch = textures.indexOf(texture);
+            if (batch < 0) {
+                batch = textures.size();
+                textures.add(texture);
+            }
+            batchOfMaterial[i] = batch;
+        }
+
+        // 描画情報ごとの頂点座標の配列、法線の配列、色の配列、UVの配列、インデックスの配列
+        int numBatches = textures.size();
+        FloatArrayList[] vertices = new FloatArrayList[numBatches];
+        FloatArrayList[] normals = new FloatArrayList[numBatches];
+        FloatArrayList[] colors = new FloatArrayList[numBatches];
+        FloatArrayList[] uvs = new FloatArrayList[numBatches];
+        IntArrayList[] indices = new IntArrayList[numBatches];
+        for (int i = 0; i < numBatches; i++) {
+            vertices[i] = new FloatArrayList();
+            normals[i] = new FloatArrayList();
+            colors[i] = new FloatArrayList();
+            uvs[i] = new FloatArrayList();
+            indices[i] = new IntArrayList();
+        }
+
+        for (int i = 0, nobj = objects.size(); i < nobj; i++) {
+            if (this.mCancelled.get()) return null; // cancel()で中断された
+            MQOObject obj = objects.get(i);         // Objectごとの頂点情報を追加していく
+            for (int j = 0, nface = obj.numFaces; j < nface; j++) {
+                int start = obj.faceOffsets[j];     // Faceごとの頂点情報を追加していく
+                int mIndex = obj.materials[j];
+                // Material情報の取得
+                Material material;
+                int batch;
+                if (mIndex >= 0 && mIndex < numMaterials) {
+                    material = this.mMaterials[mIndex];
+                    batch = batchOfMaterial[mIndex];
+                } else {
+                    material = obj.color;
+                    batch = 0;
+                }
+
+                int base = vertices[batch].size() / 3;  // この面の最初の頂点の番号
+                // 頂点インデックスごとに繰り返す
+                int n = obj.faceOffsets[j + 1] - start;
+                for (int k = 0; k < n; k++) {
+                    int v = obj.indices[start + k];
+                    vertices[batch].add(obj.positions, 3 * v, 3);   // 頂点座標を追加
+                    if (obj.shading == 0)   // 面の法線か頂点の法線を用いるか
+                        normals[batch].add(obj.faceNormals, 3 * j, 3);  // 面の法線を使用
+                    else
+                        normals[batch].add(obj.normals, 3 * v, 3);      // 頂点の法線を使用
+                    colors[batch].add(material.color, 0, 4);        // 色を追加
+                }
+                uvs[batch].add(obj.uvs, 2 * start, 2 * n);
+
+                // インデックスを追加
+                indices[batch].add(base);
+                indices[batch].add(base + 1);
+                indices[batch].add(base + 2);
+                if (n == 4) { // 四角形の場合はもう1つ三角形を
+                    indices[batch].add(base);
+                    indices[batch].add(base + 2);
+                    indices[batch].add(base + 3);
+                }
+            }
+        }
+
+        ArrayList<DrawingInfo> ret = new ArrayList<DrawingInfo>(numBatches);
+        int numVertices = 0;
+        for (int i = 0; i < numBatches; i++) {
+            if (indices[i].size() == 0) continue;   // 使われていないテクスチャ
+            ret.add(new DrawingInfo(vertices[i].toArray(), normals[i].toArray(), colors[i].toArray(), uvs[i].toArray(),
+                                    indices[i].toArray(), textures.get(i)));
+            numVertices += vertices[i].size() / 3;
+        }
+
+        if (this.mCancelled.get()) return null;
+        // 同じ頂点をまとめてインデックスで共有する
+        this.mNumInputVertices += numVertices;
+        if (this.mWeldVertices) {
+            MeshWelder welder = new MeshWelder();
+            for (int i = 0; i < ret.size(); i++) ret.set(i, welder.weld(ret.get(i)));
+            this.mNumOutputVertices += welder.getOutputVertices();
+        } else {
+            this.mNumOutputVertices += numVertices;
+        }
+
+        // 頂点数が多すぎる描画情報は分割する
+        ArrayList<DrawingInfo> split = new ArrayList<DrawingInfo>(ret.size());
+        for (int i = 0; i < ret.size(); i++) MeshSplitter.split(ret.get(i), this.mMaxVerticesPerBatch, split);
+
+        // 分割した描画情報ごとに、頂点キャッシュに当たりやすい順に並べ替える
+        if (this.mOptimizeVertexCache) {
+            if (this.mCancelled.get()) return null;
+            VertexCacheOptimizer optimizer = new VertexCacheOptimizer();
+            for (int i = 0; i < split.size(); i++) split.set(i, optimizer.optimize(split.get(i)));
+            this.mNumTriangles += optimizer.getNumTriangles();
+            this.mCacheMissesBefore += optimizer.getMissesBefore();
+            this.mCacheMissesAfter += optimizer.getMissesAfter();
+        }
+
+        return split;
+    }
+
+
+
+
+
+
+    //------------------------------------------------------------------------------
+    // Materialオブジェクト
+    //------------------------------------------------------------------------------
+    public class Material {
+
+        public float[] color;
+        public String texture;
+
+        public Material(float r, float g, float b, float a) {
+            this.color = new float[] {r, g, b, a};
+            this.texture = null;
+        }
+
+    }
+
+    //------------------------------------------------------------------------------
+    // MQOObjectオブジェクト
+    //------------------------------------------------------------------------------
+    // 頂点や面ごとにオブジェクトを作らず、プリミティブ型の配列にまとめて持つ
+    // i番目の面の頂点インデックスは indices[faceOffsets[i]] ～ indices[faceOffsets[i + 1] - 1]
+    public class MQOObject {
+
+        public int shading;
+        public Material color;
+        public int numVertices;         // 頂点数
+        public float[] positions;       // 頂点座標(x, y, z)
+        public float[] normals;         // 頂点の法線(x, y, z)。この頂点を共有する全部の面の法線の合計
+        public int numFaces;            // 面数
+        public int[] faceOffsets;       // 面ごとの頂点インデックスの開始位置(numFaces + 1個)
+        public int[] indices;           // 頂点インデックス
+        public int[] materials;         // 面ごとのマテリアル番号(-1はマテリアルなし)
+        public float[] uvs;             // 面の頂点ごとのUV(u, v)。indicesと同じ並び
+        public float[] faceNormals;     // 面の法線(x, y, z)
+        public BoundingVolume bounds;   // 頂点座標を囲む箱と球(readObjects()で求める)
+
+        public MQOObject() {
+            this.shading = 1;
+            this.color = null;
+            this.numVertices = 0;
+            this.positions = new float[0];
+            this.normals = new float[0];
+            this.numFaces = 0;
+            this.faceOffsets = new int[1];
+            this.indices = new int[0];
+            this.materials = new int[0];
+            this.uvs = new float[0];
+            this.faceNormals = new float[0];
+        }
+
+        // 面の法線を計算し、面を構成する頂点の法線にも加算する
+        public void setNormals() {
+            float[] faceNormals = new float[3 * this.numFaces];
+            for (int i = 0; i < this.numFaces; i++) {
+                int start = this.faceOffsets[i];
+                int n = this.faceOffsets[i + 1] - start;
+                // 面の法線を計算してfaceNormalsに設定
+                calcNormal(this.positions, 3 * this.indices[start], 3 * this.indices[start + 1], 3 * this.indices[start + 2], faceNormals, 3 * i);
+                // この面を構成する点にも法線を追加しておく
+                for (int k = 0; k < n; k++) {
+                    int v = 3 * this.indices[start + k];
+                    this.normals[v]     += faceNormals[3 * i];  // 加算していることに注意
+                    this.normals[v + 1] += faceNormals[3 * i + 1];
+                    this.normals[v + 2] += faceNormals[3 * i + 2];
+                }
+            }
+            this.faceNormals = faceNormals;
+        }
+
+        // 頂点をVertexオブジェクトの配列として取得する(配列の内容をコピーしたもの)
+        public Vertex[] getVertices() {
+            Vertex[] vertices = new Vertex[this.numVertices];
+            for (int i = 0; i < this.numVertices; i++) {
+                vertices[i] = new Vertex(this.positions[3 * i], this.positions[3 * i + 1], this.positions[3 * i + 2]);
+                System.arraycopy(this.normals, 3 * i, vertices[i].normal, 0, 3);
+            }
+            return vertices;
+        }
+
+        // 面をFaceオブジェクトの配列として取得する(配列の内容をコピーしたもの)
+        public Face[] getFaces() {
+            Face[] faces = new Face[this.numFaces];
+            for (int i = 0; i < this.numFaces; i++) {
+                int start = this.faceOffsets[i];
+                int n = this.faceOffsets[i + 1] - start;
+                int[] vIndices = Arrays.copyOfRange(this.indices, start, start + n);
+                faces[i] = new Face(vIndices, this.materials[i], Arrays.copyOfRange(this.uvs, 2 * start, 2 * (start + n)));
+                faces[i].normal = Arrays.copyOfRange(this.faceNormals, 3 * i, 3 * i + 3);
+            }
+            return faces;
+        }
+
+    }
+
+    //------------------------------------------------------------------------------
+    // Vertexオブジェクト
+    //------------------------------------------------------------------------------
+    public class Vertex {
+
+        public float[] xyz;
+        public float[] normal;
+
+        public Vertex(float x, float y, float z) {
+            this.xyz = new float[] {x, y, z};
+            this.normal = new float[] {0.0f, 0.0f, 0.0f}; // この頂点を共有する全部の面の法線の合計
+        }
+
+    }
+
+    //------------------------------------------------------------------------------
+    // Faceオブジェクト
+    //------------------------------------------------------------------------------
+    public class Face {
+
+        public int[] vIndices;
+        public int mIndex;
+        public float[] normal;
+        public float[] uvs;
+
+        public Face(int[] vIndices, int mIndex, float[] uvs) {
+            this.vIndices = vIndices;
+            this.mIndex = mIndex;
+            this.normal = null; // この面の法線
+            this.uvs = uvs;
+        }
+
+        // 法線の設定
+        public void setNormal(Vertex[] vertices) {
+            Vertex v0 = vertices[this.vIndices[0]];
+            Vertex v1 = vertices[this.vIndices[1]];
+            Vertex v2 = vertices[this.vIndices[2]];
+
+            // 面の法線を計算してnormalに設定
+            this.normal = calcNormal(v0.xyz, v1.xyz, v2.xyz);
+            // 法線が正しく求められたか調べる
+            if (this.normal == null) {
+                if (this.vIndices.length == 4) { // 面が四角形なら別の3点の組み合わせで法線計算
+                    Vertex v3 = vertices[this.vIndices[3]];
+                    this.normal = calcNormal(v1.xyz, v2.xyz, v3.xyz);
+                }
+                if (this.normal == null) {         // 法線が求められなかったのでY軸方向の法線とする
+                    this.normal = new float[] {0.0f, 1.0f, 0.0f};
+                }
+            }
+            // この面を構成する点にも法線を追加しておく
+            for (int i = 0, len = this.vIndices.length; i < len; i++) {
+                Vertex v = vertices[this.vIndices[i]];
+                v.normal[0] += this.normal[0]; // 加算していることに注意
+                v.normal[1] += this.normal[1];
+                v.normal[2] += this.normal[2];
+            }
+        }
+
+    }
+
+    //------------------------------------------------------------------------------
+    // 描画情報オブジェクト(頂点座標配列、法線配列、色配列、インデックス配列)
+    //------------------------------------------------------------------------------
+    public static class DrawingInfo {
+
+        public float[] vertices;
+        public float[] normals;
+        public float[] colors;
+        public float[] uvs;
+        public int[] indices;
+        public String texture;
+        public BoundingVolume bounds;   // 頂点座標を囲む箱と球(視錐台カリング用)
+        public int object = -1;         // Objectごとに作った場合はObjectの番号(複数のObjectをまとめた場合は-1)
+        public int lod = 0;             // 詳細度(0が元の面。大きいほど面が少ない)
+
+        public DrawingInfo() {}
+        public DrawingInfo(float[] vertices, float[] normals, float[] colors, float[] uvs, int[] indices, String texture) {
+            this.vertices = vertices;
+            this.normals = normals;
+            this.colors = colors;
+            this.uvs = uvs;
+            this.indices = indices;
+            this.texture = texture;
+            this.bounds = new BoundingVolume(vertices);
+        }
+
+    }
+
+    //------------------------------------------------------------------------------
+    // 文字列解析オブジェクト
+    //------------------------------------------------------------------------------
+    public class StringParser {
+
+        public CharSequence str;
+        public int index;
+        public int wordStart;   // nextWord()で見つけた単語の先頭位置
+        public int wordLength;  // nextWord()で見つけた単語の文字数
+
+        // コンストラクタ
+        public StringParser(CharSequence str) {
+            this.init(str);
+        }
+
+        // StringParserオブジェクトを初期化する
+        public void init(CharSequence str) {
+            this.str = str;
+            this.index = 0;
+            this.wordStart = 0;
+            this.wordLength = 0;
+        }
+
+        // 区切り文字を' ','\t','(',')', '"'としてすべて読み飛ばす
+        public void skipDelimiters() {
+            int i, len;
+            for (i = this.index, len = this.str.length(); i < len; i++) {
+                char c = this.str.charAt(i);
+                // TAB、Space、'('、')'を読み飛ばす
+                if (c == '\t'|| c == ' ' || c == '(' || c == ')' || c == '"') continue;
+                break;
+            }
+            this.index = i;
+        }
+
+        // 次の単語の先頭まで読み飛ばす
+        public void skipToNextWord() {
+            this.skipDelimiters();
+            int n = getWordLength(this.str, this.index);
+            this.index += (n + 1);
+        }
+
+        // 次の単語の位置を求める(文字列は生成しない)
+        public boolean nextWord() {
+            this.skipDelimiters();
+            int n = getWordLength(this.str, this.index);
+            this.wordStart = this.index;
+            this.wordLength = n;
+            if (n == 0) return false;
+            this.index += (n + 1);
+
+            return true;
+        }
+
+        // nextWord()で見つけた単語が指定のキーワードと一致するか調べる
+        public boolean isWord(String keyword) {
+            if (this.wordLength != keyword.length()) return false;
+            for (int i = 0; i < this.wordLength; i++) {
+                if (this.str.charAt(this.wordStart + i) != keyword.charAt(i)) return false;
+            }
+            return true;
+        }
+
+        // 単語を取得する
+        public String getWord() {
+            if (!this.nextWord()) return null;
+
+            return this.str.subSequence(this.wordStart, this.wordStart + this.wordLength).toString();
+        }
+
+        // 整数を取得する(文字列を生成せずに変換する)
+        public int getInt() {
+            this.nextWord();
+            return parseInt(this.str, this.wordStart, this.wordStart + this.wordLength);
+        }
+
+        // 実数を取得する(文字列を生成せずに変換する)
+        public float getFloat() {
+            this.nextWord();
+            return parseFloat(this.str, this.wordStart, this.wordStart + this.wordLength);
+        }
+
+        // 区切り文字を' ','\t','(',')', '"'として、区切りまでの文字数を数える
+        public int getWordLength(CharSequence str, int start) {
+            int i, len;
+            for (i = start, len = str.length(); i < len; i++) {
+                char c = str.charAt(i);
+                if (c == '\t' || c == ' ' || c == '(' || c == ')' || c == '"')
+                    break;
+            }
+            return i - start;
+        }
+
+    }
+
+    // 10のべき乗(1e0～1e22はdoubleで正確に表現できる)
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * 文字列の指定範囲を整数に変換する(Integer.parseIntと同じ結果を返す)
+     * @param str 変換する文字列
+     * @param start 開始位置
+     * @param end 終了位置(この位置の文字は含まない)
+     * @return 変換した整数
+     * @exception java.lang.NumberFormatException 整数として解釈できない場合に投げられます。
+     */
+    public static int parseInt(CharSequence str, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (str.charAt(i) == '-' || str.charAt(i) == '+')) {
+            negative = str.charAt(i) == '-';
+            i++;
+        }
+        long value = 0;
+        int digits = 0;
+        for (; i < end; i++, digits++) {
+            int d = str.charAt(i) - '0';
+            if (d < 0 || d > 9 || digits >= 10) // 数字以外か桁あふれの可能性があるのでInteger.parseIntに任せる
+                return Integer.parseInt(str.subSequence(start, end).toString());
+            value = value * 10 + d;
+        }
+        if (negative) value = -value;
+        if (digits == 0 || value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+            return Integer.parseInt(str.subSequence(start, end).toString()); // 例外を投げさせる
+
+        return (int)value;
+    }
+
+    /**
+     * 文字列の指定範囲を実数に変換する(Float.parseFloatと同じ結果を返す)
+     * 「-10.8909」「1.000」「1.5e-3」の形式は文字列を生成せずに変換し、
+     * それ以外の形式や丸めが微妙な値はFloat.parseFloatに任せる
+     * @param str 変換する文字列
+     * @param start 開始位置
+     * @param end 終了位置(この位置の文字は含まない)
+     * @return 変換した実数
+     * @exception java.lang.NumberFormatException 実数として解釈できない場合に投げられます。
+     */
+    public static float parseFloat(CharSequence str, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (str.charAt(i) == '-' || str.charAt(i) == '+')) {
+            negative = str.charAt(i) == '-';
+            i++;
+        }
+
+        // 仮数部(小数点を取り除いた整数)と10進の指数を求める
+        long mantissa = 0;
+        int numDigits = 0;      // 仮数部に取り込んだ有効桁数
+        int numChars = 0;       // 数字の文字数
+        int exp10 = 0;
+        boolean point = false;
+        for (; i < end; i++) {
+            char c = str.charAt(i);
+            if (c == '.' && !point) { point = true; continue; }
+            int d = c - '0';
+            if (d < 0 || d > 9) break;
+            numChars++;
+            if (mantissa == 0 && d == 0) { // 先頭の0は有効桁に数えない
+                if (point) exp10--;
+                continue;
+            }
+            if (numDigits >= 18) return parseFloatSlow(str, start, end); // 有効桁が多すぎる
+            mantissa = mantissa * 10 + d;
+            numDigits++;
+            if (point) exp10--;
+        }
+        if (numChars == 0) return parseFloatSlow(str, start, end);
+        if (i < end && (str.charAt(i) == 'e' || str.charAt(i) == 'E')) { // 指数部
+            i++;
+            boolean expNegative = false;
+            if (i < end && (str.charAt(i) == '-' || str.charAt(i) == '+')) {
+                expNegative = str.charAt(i) == '-';
+                i++;
+            }
+            int exp = 0, expDigits = 0;
+            for (; i < end; i++, expDigits++) {
+                int d = str.charAt(i) - '0';
+                if (d < 0 || d > 9 || expDigits >= 4) return parseFloatSlow(str, start, end);
+                exp = exp * 10 + d;
+            }
+            if (expDigits == 0) return parseFloatSlow(str, start, end);
+            exp10 += expNegative ? -exp : exp;
+        }
+        if (i != end) return parseFloatSlow(str, start, end); // 'f'などの接尾辞や不正な文字
+
+        if (mantissa == 0) return negative ? -0.0f : 0.0f;
+        if (mantissa >= (1L << 53) || exp10 < -22 || exp10 > 22) return parseFloatSlow(str, start, end);
+
+        // 仮数部が2^53未満、指数が±22以内なら1回の乗除算で正しく丸められたdoubleが得られる
+        double value = exp10 < 0 ? mantissa / POW10[-exp10] : mantissa * POW10[exp10];
+        // floatへの丸めで二重丸めになる(floatのちょうど中間の値になる)場合だけ正確に変換し直す
+        long bits = Double.doubleToRawLongBits(value);
+        if ((bits & 0x1FFFFFFFL) == 0x10000000L) return parseFloatSlow(str, start, end);
+        float f = (float)value;
+        if (Math.abs(f) < Float.MIN_NORMAL || Float.isInfinite(f)) return parseFloatSlow(str, start, end);
+
+        return negative ? -f : f;
+    }
+
+    // Float.parseFloatを使って変換する(文字列を生成する)
+    private static float parseFloatSlow(CharSequence str, int start, int end) {
+        return Float.parseFloat(str.subSequence(start, end).toString());
+    }
+
+    //------------------------------------------------------------------------------
+    // 共通関数(法線を求める)
+    //------------------------------------------------------------------------------
+    // 配列中の3点p0, p1, p2(各オフセットから3要素)の法線を求め、outのoutOffsetから格納する
+    public static void calcNormal(float[] p, int p0, int p1, int p2, float[] out, int outOffset) {
+        // p1からp0へのベクトル、p1からp2へのベクトルを求める
+        float v0x = p[p0] - p[p1], v0y = p[p0 + 1] - p[p1 + 1], v0z = p[p0 + 2] - p[p1 + 2];
+        float v1x = p[p2] - p[p1], v1y = p[p2 + 1] - p[p1 + 1], v1z = p[p2 + 2] - p[p1 + 2];
+
+        // v0,v1の外積を求める
+        out[outOffset]     = v0y * v1z - v0z * v1y;
+        out[outOffset + 1] = v0z * v1x - v0x * v1z;
+        out[outOffset + 2] = v0x * v1y - v0y * v1x;
+
+        // 正規化する
+        MathUtils.normalizeVector3(out, outOffset);
+    }
+
+    public static float[] calcNormal(float[] p0, float[] p1, float[] p2) {
+        // p1からp0へのベクトル、p1からp2へのベクトルを求める
+        float[] v0 = new float[3];
+        float[] v1 = new float[3];
+        for (int i = 0; i < 3; i++) {
+            v0[i] = p0[i] - p1[i];
+            v1[i] = p2[i] - p1[i];
+        }
+
+        // v0,v1の外積を求める
+        float[] c = new float[3];
+        c[0] = v0[1] * v1[2] - v0[2] * v1[1];
+        c[1] = v0[2] * v1[0] - v0[0] * v1[2];
+        c[2] = v0[0] * v1[1] - v0[1] * v1[0];
+
+        // 正規化する
+        MathUtils.normalizeVector3(c, 0);
+        return c;
+    }
+}
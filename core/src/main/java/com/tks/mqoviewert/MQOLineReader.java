@@ -0,0 +1,228 @@
+package com.tks.mqoviewert;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * MQOファイルを1行ずつ切り出すリーダー
+ * ストリームから読み込む場合は固定長のバイトバッファを使い、ファイル全体は保持しない
+ * メモリマップしたバッファから読み込む場合はコピーせずにそのまま参照する
+ * どちらの場合も行は文字にデコードせず、バイト列を参照するLineとして返す
+ */
+public class MQOLineReader {
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;   // 既定のバッファサイズ(バイト)
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private InputStream mInputStream;           // 読み込み元(InputStreamの場合)
+    private ReadableByteChannel mChannel;       // 読み込み元(Channelの場合)
+    private ByteBuffer mBuffer;                 // 読み込み用バッファ(position～limitが未処理のバイト)
+    private int mScanned;                       // 改行を探し終えた位置
+    private boolean mEof;                       // 読み込み元の終端に達したか
+    private IOException mException;             // 読み込み中に発生した例外
+    private final Line mLine = new Line();      // readLine()で返す行(使い回す)
+
+    // コンストラクタ
+    public MQOLineReader(InputStream inputStream) {
+        this(inputStream, DEFAULT_BUFFER_SIZE);
+    }
+
+    public MQOLineReader(InputStream inputStream, int bufferSize) {
+        this.mInputStream = inputStream;
+        this.init(bufferSize);
+    }
+
+    public MQOLineReader(ReadableByteChannel channel) {
+        this(channel, DEFAULT_BUFFER_SIZE);
+    }
+
+    public MQOLineReader(ReadableByteChannel channel, int bufferSize) {
+        this.mChannel = channel;
+        this.init(bufferSize);
+    }
+
+    // メモリ上のバッファ(MappedByteBufferなど)のposition～limitを読み込む
+    public MQOLineReader(ByteBuffer buffer) {
+        this.mBuffer = buffer.duplicate();  // 中身はコピーしない
+        this.mScanned = 0;
+        this.mEof = true;                   // 追加で読み込むものはない
+        this.mException = null;
+    }
+
+    private void init(int bufferSize) {
+        if (bufferSize <= 0) throw new IllegalArgumentException();
+        this.mBuffer = ByteBuffer.allocate(bufferSize);
+        this.mBuffer.limit(0);  // 空の状態から始める
+        this.mScanned = 0;
+        this.mEof = false;
+        this.mException = null;
+    }
+
+    /**
+     * 1行読み込む(行末の"\r\n"、"\n"は含まない)
+     * 返すLineは使い回すので、次にreadLine()を呼ぶまでの間だけ有効
+     * @return 読み込んだ行。終端に達したか、読み込みに失敗した場合はnull
+     */
+    public CharSequence readLine() {
+        while (true) {
+            int start = this.mBuffer.position();
+            int limit = this.mBuffer.limit();
+            int i = this.indexOfNewline(Math.max(start, this.mScanned), limit);
+            if (i >= 0) {
+                this.mBuffer.position(i + 1);
+                this.mScanned = i + 1;
+                return this.mLine.set(this.mBuffer, start, i);
+            }
+            this.mScanned = limit;
+
+            if (this.mEof) {
+                if (start == limit) return null;    // 残りがないので終わり
+                this.mBuffer.position(limit);       // 改行なしで終わる最終行
+                return this.mLine.set(this.mBuffer, start, limit);
+            }
+            this.fill();
+        }
+    }
+
+    /**
+     * メモリ上のバッファから読み込んでいるか(skipChunk()が使えるか)
+     * @return メモリ上のバッファから読み込んでいればtrue
+     */
+    public boolean isRandomAccess() {
+        return this.mInputStream == null && this.mChannel == null;
+    }
+
+    /**
+     * 直前に読んだ行で始まったチャンクを、対応する'}'の行まで読み飛ばす
+     * 括弧の対応だけを見るので、中身を解析するよりずっと速い
+     * @return 読み飛ばしたチャンクの中身('}'の行まで)。バッファの内容はコピーしない
+     * @exception java.lang.IllegalStateException メモリ上のバッファから読み込んでいない場合に投げられます。
+     */
+    public ByteBuffer skipChunk() {
+        if (!this.isRandomAccess()) throw new IllegalStateException();
+
+        ByteBuffer buffer = this.mBuffer;
+        int start = buffer.position();
+        int limit = buffer.limit();
+        int depth = 1;  // 直前の行の'{'の分
+        int i = start;
+        while (i < limit && depth > 0) {
+            byte b = buffer.get(i++);
+            if (b == '{') depth++;
+            else if (b == '}') depth--;
+        }
+        int newline = this.indexOfNewline(i, limit);
+        int end = newline >= 0 ? newline + 1 : limit;   // '}'の行の終わりまで
+
+        ByteBuffer chunk = buffer.duplicate();
+        chunk.limit(end);
+        chunk.position(start);
+        buffer.position(end);
+        this.mScanned = end;
+        return chunk.slice();
+    }
+
+    /**
+     * 読み込み中に発生した例外を取得する
+     * @return 発生した例外。発生していなければnull
+     */
+    public IOException getException() {
+        return this.mException;
+    }
+
+    // '\n'の位置を探す(見つからなければ-1)
+    private int indexOfNewline(int from, int to) {
+        ByteBuffer buffer = this.mBuffer;
+        if (buffer.hasArray()) {
+            byte[] array = buffer.array();
+            int offset = buffer.arrayOffset();
+            for (int i = from; i < to; i++) {
+                if (array[offset + i] == '\n') return i;
+            }
+        } else {
+            for (int i = from; i < to; i++) {
+                if (buffer.get(i) == '\n') return i;
+            }
+        }
+        return -1;
+    }
+
+    // 未処理のバイトを先頭に詰めて、読み込み元から続きを読み込む
+    private void fill() {
+        int remaining = this.mBuffer.remaining();
+        if (remaining == this.mBuffer.capacity()) {
+            // バッファより長い行はバッファを広げて読み込む
+            ByteBuffer buffer = ByteBuffer.allocate(this.mBuffer.capacity() * 2);
+            buffer.put(this.mBuffer);
+            this.mBuffer = buffer;
+        } else {
+            this.mBuffer.compact();
+        }
+        this.mScanned = remaining; // 詰めた部分は改行がないことを確認済み
+
+        try {
+            int n;
+            if (this.mChannel != null) {
+                n = this.mChannel.read(this.mBuffer);
+            } else {
+                n = this.mInputStream.read(this.mBuffer.array(), this.mBuffer.arrayOffset() + this.mBuffer.position(), this.mBuffer.remaining());
+                if (n > 0) this.mBuffer.position(this.mBuffer.position() + n);
+            }
+            if (n < 0) this.mEof = true;
+        } catch (IOException e) {
+            this.mException = e;
+            this.mEof = true;
+        }
+        this.mBuffer.flip();
+    }
+
+    //------------------------------------------------------------------------------
+    // バッファ上の1行を文字列に変換せずに参照するオブジェクト
+    // 1バイトを1文字として扱う(解析に使う文字はすべてASCII)
+    //------------------------------------------------------------------------------
+    public static class Line implements CharSequence {
+
+        private ByteBuffer mBuffer;
+        private int mStart;
+        private int mLength;
+
+        // 行の範囲を設定する(行末の'\r'は取り除く)
+        Line set(ByteBuffer buffer, int start, int end) {
+            if (end > start && buffer.get(end - 1) == '\r') end--;
+            this.mBuffer = buffer;
+            this.mStart = start;
+            this.mLength = end - start;
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return this.mLength;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char)(this.mBuffer.get(this.mStart + index) & 0xff);
+        }
+
+        // 指定範囲をデコードした文字列を返す(テクスチャ名など、文字列として残すものに使う)
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > this.mLength || start > end) throw new IndexOutOfBoundsException();
+            int length = end - start;
+            if (this.mBuffer.hasArray())
+                return new String(this.mBuffer.array(), this.mBuffer.arrayOffset() + this.mStart + start, length, CHARSET);
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) bytes[i] = this.mBuffer.get(this.mStart + start + i);
+            return new String(bytes, CHARSET);
+        }
+
+        @Override
+        public String toString() {
+            return this.subSequence(0, this.mLength).toString();
+        }
+
+    }
+}
@@ -0,0 +1,40 @@
+package com.tks.mqoviewert;
+
+/**
+ * ベクトル、行列の計算(Androidに依存しない)
+ */
+public class MathUtils {
+
+    public static void normalizeVector3(float[] v, int offset) {
+        float length = (float)Math.sqrt(v[offset] * v[offset] + v[offset + 1] * v[offset + 1] + v[offset + 2] * v[offset + 2]);
+        if (length == 0) return;
+        v[offset] /= length;
+        v[offset + 1] /= length;
+        v[offset + 2] /= length;
+    }
+
+    /**
+     * 透視投影行列を作成する(android.opengl.Matrix.frustumM()と同じ、列優先の行列)
+     * @param m 透視投影行列
+     * @param offset mのどこから計算した行列を格納するか
+     * @param fovy 視野角
+     * @param aspect 近平面の縦横比
+     * @param zNear 近平面までの距離
+     * @param zFar 遠平面までの距離
+     * @return なし
+     */
+    public static void setPerspectiveM(float[] m, int offset, double fovy, double aspect, double zNear, double zFar) {
+        double ymax = zNear * Math.tan(fovy * Math.PI / 360.0);
+        double ymin = -ymax;
+        double xmin = ymin * aspect;
+        double xmax = ymax * aspect;
+        for (int i = 0; i < 16; i++) m[offset + i] = 0.0f;
+        m[offset]      = (float)(2.0 * zNear / (xmax - xmin));
+        m[offset + 5]  = (float)(2.0 * zNear / (ymax - ymin));
+        m[offset + 8]  = (float)((xmax + xmin) / (xmax - xmin));
+        m[offset + 9]  = (float)((ymax + ymin) / (ymax - ymin));
+        m[offset + 10] = (float)(-(zFar + zNear) / (zFar - zNear));
+        m[offset + 11] = -1.0f;
+        m[offset + 14] = (float)(-2.0 * zFar * zNear / (zFar - zNear));
+    }
+}
@@ -0,0 +1,302 @@
+package com.tks.mqoviewert;
+
+import java.util.List;
+
+/**
+ * MQOObjectの面を三角形に分けて作るバウンディングボリューム階層(BVH)
+ * レイと交わる最も手前の面を、全部の面を調べずに求める(タップした面の選択に使う)
+ * 節点は配列に並べて持ち、節点ごとのオブジェクトは作らない
+ */
+public class MeshBVH {
+    private static final int MAX_LEAF_TRIANGLES = 4;    // 葉に入れる最大の三角形数
+    private static final int MAX_DEPTH = 64;            // 節点の最大の深さ(根が1)。探索用のスタックもこの大きさで足りる
+
+    // 三角形(葉の中で連続するように並べ替える)
+    private final float[] mPositions;   // 全Objectの頂点座標をつなげたもの(x, y, z)
+    private final int[] mTriVertices;   // 三角形ごとの頂点番号(mPositionsでの番号)×3
+    private final int[] mTriObjects;    // 三角形ごとのObjectの番号
+    private final int[] mTriFaces;      // 三角形ごとの面の番号(四角形は2つの三角形が同じ面を指す)
+    private final int mNumTriangles;
+
+    // 節点(子は2つとも作るので、左の子のすぐ後に左の子孫が並び、その後に右の子が並ぶ)
+    private float[] mNodeBounds;    // 節点ごとの箱(minX, minY, minZ, maxX, maxY, maxZ)
+    private int[] mNodeStart;       // 葉なら最初の三角形の番号、内部節点なら右の子の番号
+    private int[] mNodeCount;       // 葉なら三角形数、内部節点なら0
+    private int mNumNodes;
+
+    // intersect()の結果
+    public static class Hit {
+        public int object;      // Objectの番号
+        public int face;        // Object内の面の番号
+        public float distance;  // レイの始点からの距離(方向ベクトルの長さが単位)
+        public final float[] point = new float[3];  // 交点の座標
+    }
+
+    /**
+     * 全部のObjectの面からBVHを作る
+     * @param objects 解析したObject
+     */
+    public MeshBVH(List<MQODoc.MQOObject> objects) {
+        // 頂点座標をつなげ、面を三角形に分ける
+        int numVertices = 0, numTriangles = 0;
+        for (int o = 0; o < objects.size(); o++) {
+            MQODoc.MQOObject obj = objects.get(o);
+            numVertices += obj.numVertices;
+            for (int f = 0; f < obj.numFaces; f++)
+                numTriangles += obj.faceOffsets[f + 1] - obj.faceOffsets[f] - 2;
+        }
+        this.mPositions = new float[3 * numVertices];
+        this.mTriVertices = new int[3 * numTriangles];
+        this.mTriObjects = new int[numTriangles];
+        this.mTriFaces = new int[numTriangles];
+        this.mNumTriangles = numTriangles;
+
+        int base = 0, t = 0;
+        for (int o = 0; o < objects.size(); o++) {
+            MQODoc.MQOObject obj = objects.get(o);
+            System.arraycopy(obj.positions, 0, this.mPositions, 3 * base, 3 * obj.numVertices);
+            for (int f = 0; f < obj.numFaces; f++) {
+                int start = obj.faceOffsets[f];
+                int n = obj.faceOffsets[f + 1] - start;
+                for (int k = 1; k + 1 < n; k++) {   // 描画と同じく(0, 1, 2)と(0, 2, 3)に分ける
+                    this.mTriVertices[3 * t] = base + obj.indices[start];
+                    this.mTriVertices[3 * t + 1] = base + obj.indices[start + k];
+                    this.mTriVertices[3 * t + 2] = base + obj.indices[start + k + 1];
+                    this.mTriObjects[t] = o;
+                    this.mTriFaces[t] = f;
+                    t++;
+                }
+            }
+            base += obj.numVertices;
+        }
+
+        this.build();
+    }
+
+    // 三角形数
+    public int getNumTriangles() {
+        return this.mNumTriangles;
+    }
+
+    // 節点数
+    public int getNumNodes() {
+        return this.mNumNodes;
+    }
+
+    /**
+     * レイと交わる最も手前の面を求める
+     * @param origin レイの始点
+     * @param dir レイの方向(長さは1でなくてよい)
+     * @param hit 交わった面(戻り値がtrueの場合のみ設定する)
+     * @return 交わる面があればtrue
+     */
+    public boolean intersect(float[] origin, float[] dir, Hit hit) {
+        if (this.mNumNodes == 0) return false;
+        float ox = origin[0], oy = origin[1], oz = origin[2];
+        float dx = dir[0], dy = dir[1], dz = dir[2];
+        float ix = 1.0f / dx, iy = 1.0f / dy, iz = 1.0f / dz;   // 0なら無限大になり、箱との判定はそのまま使える
+
+        float best = Float.POSITIVE_INFINITY;
+        int bestTri = -1;
+        int[] stack = new int[MAX_DEPTH];
+        int sp = 0;
+        stack[sp++] = 0;
+        while (sp > 0) {
+            int node = stack[--sp];
+            if (this.hitBox(node, ox, oy, oz, ix, iy, iz, best) < 0) continue;
+
+            int count = this.mNodeCount[node];
+            if (count > 0) {    // 葉
+                int start = this.mNodeStart[node];
+                for (int t = start; t < start + count; t++) {
+                    float d = this.hitTriangle(t, ox, oy, oz, dx, dy, dz);
+                    if (d >= 0 && d < best) {
+                        best = d;
+                        bestTri = t;
+                    }
+                }
+                continue;
+            }
+
+            // 近い方の子を先に調べる(遠い方は近い方で交点が見つかれば箱の判定で省ける)
+            int left = node + 1, right = this.mNodeStart[node];
+            float dl = this.hitBox(left, ox, oy, oz, ix, iy, iz, best);
+            float dr = this.hitBox(right, ox, oy, oz, ix, iy, iz, best);
+            if (dl >= 0 && dr >= 0) {
+                if (dl <= dr) {
+                    stack[sp++] = right;
+                    stack[sp++] = left;
+                } else {
+                    stack[sp++] = left;
+                    stack[sp++] = right;
+                }
+            } else if (dl >= 0) {
+                stack[sp++] = left;
+            } else if (dr >= 0) {
+                stack[sp++] = right;
+            }
+        }
+        if (bestTri < 0) return false;
+
+        hit.object = this.mTriObjects[bestTri];
+        hit.face = this.mTriFaces[bestTri];
+        hit.distance = best;
+        hit.point[0] = ox + dx * best;
+        hit.point[1] = oy + dy * best;
+        hit.point[2] = oz + dz * best;
+        return true;
+    }
+
+    // 節点の箱とレイが交わる距離(交わらないか、maxDistanceより遠ければ-1)
+    private float hitBox(int node, float ox, float oy, float oz, float ix, float iy, float iz, float maxDistance) {
+        int b = 6 * node;
+        float t0 = (this.mNodeBounds[b] - ox) * ix, t1 = (this.mNodeBounds[b + 3] - ox) * ix;
+        float near = Math.min(t0, t1), far = Math.max(t0, t1);
+        t0 = (this.mNodeBounds[b + 1] - oy) * iy;
+        t1 = (this.mNodeBounds[b + 4] - oy) * iy;
+        near = Math.max(near, Math.min(t0, t1));
+        far = Math.min(far, Math.max(t0, t1));
+        t0 = (this.mNodeBounds[b + 2] - oz) * iz;
+        t1 = (this.mNodeBounds[b + 5] - oz) * iz;
+        near = Math.max(near, Math.min(t0, t1));
+        far = Math.min(far, Math.max(t0, t1));
+        if (far < Math.max(near, 0.0f) || near > maxDistance) return -1.0f;
+        return Math.max(near, 0.0f);
+    }
+
+    // 三角形とレイが交わる距離(Moller-Trumboreの方法。交わらなければ-1。裏面とも交わる)
+    private float hitTriangle(int t, float ox, float oy, float oz, float dx, float dy, float dz) {
+        float[] p = this.mPositions;
+        int a = 3 * this.mTriVertices[3 * t], b = 3 * this.mTriVertices[3 * t + 1], c = 3 * this.mTriVertices[3 * t + 2];
+        float e1x = p[b] - p[a], e1y = p[b + 1] - p[a + 1], e1z = p[b + 2] - p[a + 2];
+        float e2x = p[c] - p[a], e2y = p[c + 1] - p[a + 1], e2z = p[c + 2] - p[a + 2];
+        float px = dy * e2z - dz * e2y, py = dz * e2x - dx * e2z, pz = dx * e2y - dy * e2x;
+        float det = e1x * px + e1y * py + e1z * pz;
+        if (det == 0.0f) return -1.0f;  // レイと平行
+        float inv = 1.0f / det;
+        float sx = ox - p[a], sy = oy - p[a + 1], sz = oz - p[a + 2];
+        float u = (sx * px + sy * py + sz * pz) * inv;
+        if (u < 0.0f || u > 1.0f) return -1.0f;
+        float qx = sy * e1z - sz * e1y, qy = sz * e1x - sx * e1z, qz = sx * e1y - sy * e1x;
+        float v = (dx * qx + dy * qy + dz * qz) * inv;
+        if (v < 0.0f || u + v > 1.0f) return -1.0f;
+        float d = (e2x * qx + e2y * qy + e2z * qz) * inv;
+        return d >= 0.0f ? d : -1.0f;
+    }
+
+    //------------------------------------------------------------------------------
+    // BVHの構築
+    // 三角形の重心の範囲が最も長い軸の中央で分け、偏って分けられなければ数で半分に分ける
+    //------------------------------------------------------------------------------
+    private void build() {
+        int n = this.mNumTriangles;
+        // 三角形ごとの箱と重心(並べ替えに合わせて入れ替える)
+        float[] triBounds = new float[6 * n];
+        float[] centroids = new float[3 * n];
+        for (int t = 0; t < n; t++) {
+            for (int k = 0; k < 3; k++) {
+                float a = this.mPositions[3 * this.mTriVertices[3 * t] + k];
+                float b = this.mPositions[3 * this.mTriVertices[3 * t + 1] + k];
+                float c = this.mPositions[3 * this.mTriVertices[3 * t + 2] + k];
+                triBounds[6 * t + k] = Math.min(a, Math.min(b, c));
+                triBounds[6 * t + 3 + k] = Math.max(a, Math.max(b, c));
+                centroids[3 * t + k] = (triBounds[6 * t + k] + triBounds[6 * t + 3 + k]) * 0.5f;
+            }
+        }
+
+        int maxNodes = Math.max(1, 2 * n - 1);
+        this.mNodeBounds = new float[6 * maxNodes];
+        this.mNodeStart = new int[maxNodes];
+        this.mNodeCount = new int[maxNodes];
+        this.mNumNodes = 0;
+        if (n == 0) return;
+
+        // 再帰せずに、作る節点をスタックに積んで順に作る(左の子を先に作るので、左の子孫は親のすぐ後に並ぶ)
+        int[] stackStart = new int[MAX_DEPTH];
+        int[] stackCount = new int[MAX_DEPTH];
+        int[] stackParent = new int[MAX_DEPTH];    // 右の子の場合の親の番号(左の子は-1)
+        int[] stackDepth = new int[MAX_DEPTH];     // 節点の深さ(根が1)
+        int sp = 0;
+        stackStart[sp] = 0;
+        stackCount[sp] = n;
+        stackParent[sp] = -1;
+        stackDepth[sp] = 1;
+        sp++;
+        float[] cmin = new float[3], cmax = new float[3];
+        while (sp > 0) {
+            sp--;
+            int start = stackStart[sp], count = stackCount[sp], parent = stackParent[sp], depth = stackDepth[sp];
+            int node = this.mNumNodes++;
+            if (parent >= 0) this.mNodeStart[parent] = node;
+
+            // 箱と重心の範囲を求める
+            int b = 6 * node;
+            for (int k = 0; k < 3; k++) {
+                this.mNodeBounds[b + k] = cmin[k] = Float.MAX_VALUE;
+                this.mNodeBounds[b + 3 + k] = cmax[k] = -Float.MAX_VALUE;
+            }
+            for (int t = start; t < start + count; t++) {
+                for (int k = 0; k < 3; k++) {
+                    this.mNodeBounds[b + k] = Math.min(this.mNodeBounds[b + k], triBounds[6 * t + k]);
+                    this.mNodeBounds[b + 3 + k] = Math.max(this.mNodeBounds[b + 3 + k], triBounds[6 * t + 3 + k]);
+                    cmin[k] = Math.min(cmin[k], centroids[3 * t + k]);
+                    cmax[k] = Math.max(cmax[k], centroids[3 * t + k]);
+                }
+            }
+
+            // 深さの上限では三角形が多くても葉にする(積む節点は深さごとに高々1つなので、スタックはMAX_DEPTHで足りる)
+            if (count <= MAX_LEAF_TRIANGLES || depth >= MAX_DEPTH) {   // 葉にする
+                this.mNodeStart[node] = start;
+                this.mNodeCount[node] = count;
+                continue;
+            }
+
+            // 重心の範囲が最も長い軸の中央で分ける
+            int axis = 0;
+            for (int k = 1; k < 3; k++)
+                if (cmax[k] - cmin[k] > cmax[axis] - cmin[axis]) axis = k;
+            float mid = (cmin[axis] + cmax[axis]) * 0.5f;
+            int i = start, j = start + count - 1;
+            while (i <= j) {
+                if (centroids[3 * i + axis] < mid) i++;
+                else this.swap(i, j--, triBounds, centroids);
+            }
+            int leftCount = i - start;
+            if (leftCount == 0 || leftCount == count) leftCount = count / 2;   // 重心が全部同じなど
+
+            this.mNodeCount[node] = 0;
+            // 右の子を先に積み、左の子を先に作る
+            stackStart[sp] = start + leftCount;
+            stackCount[sp] = count - leftCount;
+            stackParent[sp] = node;
+            stackDepth[sp] = depth + 1;
+            sp++;
+            stackStart[sp] = start;
+            stackCount[sp] = leftCount;
+            stackParent[sp] = -1;
+            stackDepth[sp] = depth + 1;
+            sp++;
+        }
+    }
+
+    // 三角形を入れ替える
+    private void swap(int i, int j, float[] triBounds, float[] centroids) {
+        for (int k = 0; k < 3; k++) swap(this.mTriVertices, 3 * i + k, 3 * j + k);
+        swap(this.mTriObjects, i, j);
+        swap(this.mTriFaces, i, j);
+        for (int k = 0; k < 6; k++) swap(triBounds, 6 * i + k, 6 * j + k);
+        for (int k = 0; k < 3; k++) swap(centroids, 3 * i + k, 3 * j + k);
+    }
+
+    private static void swap(int[] a, int i, int j) {
+        int tmp = a[i];
+        a[i] = a[j];
+        a[j] = tmp;
+    }
+
+    private static void swap(float[] a, int i, int j) {
+        float tmp = a[i];
+        a[i] = a[j];
+        a[j] = tmp;
+    }
+}
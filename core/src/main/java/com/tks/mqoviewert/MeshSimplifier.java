@@ -0,0 +1,465 @@
+package com.tks.mqoviewert;
+
+import java.util.Arrays;
+
+/**
+ * Objectの面を、二次誤差(QEM)の小さい辺から縮約して減らす(LOD用)
+ * 縮約は辺の一方の頂点をもう一方に寄せる方法で行うので、頂点座標とUVは元の値のまま残る
+ * 輪郭、マテリアルの境目、UVの継ぎ目にある頂点は、その線に沿ってだけ寄せるので、境目の形と位置は保たれる
+ * 縮約は1回の走査で重ならない辺をまとめて行い、目標の三角形数になるか縮約できなくなるまで繰り返す
+ */
+public class MeshSimplifier {
+    private static final float MIN_FLIP_COS = 0.2f;   // 縮約で面の向きがこれ以上変わる(cosがこれ未満になる)なら縮約しない
+
+    // 頂点の種類
+    private static final byte KIND_FREE = 0;    // 内側の頂点(どの隣の頂点にも寄せられる)
+    private static final byte KIND_BORDER = 1;  // 輪郭上の頂点(輪郭に沿ってだけ寄せられる)
+    private static final byte KIND_SEAM = 2;    // マテリアルの境目かUVの継ぎ目の上の頂点(継ぎ目に沿ってだけ寄せられる)
+    private static final byte KIND_LOCKED = 3;  // 輪郭や継ぎ目の角など(動かさない)
+
+    // 辺の種類
+    private static final int EDGE_INTERIOR = 0;     // 2つの三角形で共有され、両側でUVとマテリアルが同じ
+    private static final int EDGE_BORDER = 1;       // 1つの三角形にしか使われていない
+    private static final int EDGE_SEAM = 2;         // 2つの三角形で共有され、両側でUVかマテリアルが違う
+    private static final int EDGE_NON_MANIFOLD = 3; // 3つ以上の三角形で共有される
+
+    // 作業中の三角形
+    private int[] mTris;            // 三角形ごとの頂点番号×3(-1は消えた三角形)
+    private float[] mTriUVs;        // 三角形の頂点ごとのUV(u, v)×3
+    private int[] mTriMaterials;    // 三角形ごとのマテリアル番号
+    private int mNumTris;           // 三角形数(消えたものも含む)
+    private int mLiveTris;          // 残っている三角形数
+
+    private float[] mPositions;
+    private double[] mQuadrics;     // 頂点ごとの二次誤差の係数×10
+    private byte[] mKinds;          // 頂点の種類
+    private boolean[] mTouched;     // 直前の走査で周りの三角形が変わった頂点(種類を決め直す)
+    private int[] mSeamNeighbors;   // 輪郭や継ぎ目の頂点の、同じ線上の隣の頂点×2
+    private int[] mStamp;           // 頂点に付ける印(mStampMarkと同じなら印が付いている)
+    private int mStampMark;
+
+    // 頂点ごとの三角形の一覧(走査ごとに作り直す)
+    private int[] mAdjOffsets;
+    private int[] mAdjTris;
+
+    /**
+     * 面を減らしたObjectを作る
+     * @param src 元のObject(変更しない)
+     * @param targetTriangles 目標の三角形数(縮約できる辺がなくなればそれより多く残る)
+     * @param dst 結果を入れるObject(面はすべて三角形になる。法線と境界も求める)
+     */
+    public static void simplify(MQODoc.MQOObject src, int targetTriangles, MQODoc.MQOObject dst) {
+        MeshSimplifier simplifier = new MeshSimplifier();
+        simplifier.init(src);
+        int target = Math.max(1, targetTriangles);
+        while (simplifier.mLiveTris > target) {
+            if (simplifier.collapsePass(target) == 0) break;   // もう縮約できる辺がない
+        }
+        simplifier.output(src, dst);
+    }
+
+    // 面を三角形に分けた場合の三角形数
+    public static int countTriangles(MQODoc.MQOObject obj) {
+        int n = 0;
+        for (int f = 0; f < obj.numFaces; f++) n += obj.faceOffsets[f + 1] - obj.faceOffsets[f] - 2;
+        return n;
+    }
+
+    // 面を三角形に分け、二次誤差を求める
+    private void init(MQODoc.MQOObject src) {
+        int n = countTriangles(src);
+        this.mTris = new int[3 * n];
+        this.mTriUVs = new float[6 * n];
+        this.mTriMaterials = new int[n];
+        int t = 0;
+        for (int f = 0; f < src.numFaces; f++) {
+            int start = src.faceOffsets[f];
+            int count = src.faceOffsets[f + 1] - start;
+            for (int k = 1; k + 1 < count; k++) {   // 描画と同じく(0, 1, 2)と(0, 2, 3)に分ける
+                int[] corners = {start, start + k, start + k + 1};
+                for (int c = 0; c < 3; c++) {
+                    this.mTris[3 * t + c] = src.indices[corners[c]];
+                    this.mTriUVs[6 * t + 2 * c] = src.uvs[2 * corners[c]];
+                    this.mTriUVs[6 * t + 2 * c + 1] = src.uvs[2 * corners[c] + 1];
+                }
+                this.mTriMaterials[t] = src.materials[f];
+                t++;
+            }
+        }
+        this.mNumTris = n;
+        this.mLiveTris = n;
+        this.mPositions = src.positions;
+        this.mKinds = new byte[src.numVertices];
+        this.mTouched = new boolean[src.numVertices];
+        Arrays.fill(this.mTouched, true);
+        this.mSeamNeighbors = new int[2 * src.numVertices];
+        this.mStamp = new int[src.numVertices];
+
+        // 面の平面からの距離の二乗を、面積で重み付けして頂点ごとに足しておく
+        this.mQuadrics = new double[10 * src.numVertices];
+        double[] plane = new double[4];
+        for (t = 0; t < n; t++) {
+            double area = this.plane(t, plane);
+            if (area <= 0) continue;
+            for (int c = 0; c < 3; c++) addQuadric(this.mQuadrics, this.mTris[3 * t + c], plane, area);
+        }
+    }
+
+    // 周りの三角形が変わった頂点の種類を決める(隣の頂点ごとに、辺を共有する三角形の数と、両側でUVやマテリアルが違うかを調べる)
+    private void classify() {
+        int numVertices = this.mKinds.length;
+        for (int u = 0; u < numVertices; u++) {
+            if (!this.mTouched[u]) continue;
+            int borders = 0, seams = 0;
+            boolean locked = false;
+            int mark = this.nextMark();
+            for (int j = this.mAdjOffsets[u]; j < this.mAdjOffsets[u + 1] && !locked; j++) {
+                int t = this.mAdjTris[j];
+                for (int c = 0; c < 3; c++) {
+                    int w = this.mTris[3 * t + c];
+                    if (w == u || this.mStamp[w] == mark) continue;    // 辺uwは1回だけ数える
+                    this.mStamp[w] = mark;
+                    int type = this.edgeType(u, w);
+                    if (type == EDGE_NON_MANIFOLD) {
+                        locked = true;
+                    } else if (type != EDGE_INTERIOR) {
+                        int count = borders + seams;
+                        if (count < 2) this.mSeamNeighbors[2 * u + count] = w;
+                        if (type == EDGE_BORDER) borders++;
+                        else seams++;
+                    }
+                }
+            }
+            int wedges = this.countWedges(u);
+            if (locked || borders + seams > 2 || borders == 1 || seams == 1 || wedges > 2 || (borders > 0 && wedges > 1))
+                this.mKinds[u] = KIND_LOCKED;   // 輪郭や継ぎ目の角、枝分かれ
+            else if (borders == 2)
+                this.mKinds[u] = KIND_BORDER;
+            else if (seams == 2)
+                this.mKinds[u] = KIND_SEAM;
+            else if (wedges > 1)
+                this.mKinds[u] = KIND_LOCKED;   // 継ぎ目の辺がないのにUVが違う(角だけで接している)
+            else
+                this.mKinds[u] = KIND_FREE;
+        }
+    }
+
+    // 新しい印
+    private int nextMark() {
+        if (++this.mStampMark == 0) {   // 一巡したら付け直す
+            Arrays.fill(this.mStamp, 0);
+            this.mStampMark = 1;
+        }
+        return this.mStampMark;
+    }
+
+    // 辺uvの種類
+    private int edgeType(int u, int v) {
+        int t0 = -1, t1 = -1, count = 0;
+        for (int j = this.mAdjOffsets[u]; j < this.mAdjOffsets[u + 1]; j++) {
+            int t = this.mAdjTris[j];
+            if (!this.contains(t, v)) continue;
+            if (count == 0) t0 = t;
+            else t1 = t;
+            count++;
+        }
+        if (count == 1) return EDGE_BORDER;
+        if (count != 2) return EDGE_NON_MANIFOLD;
+        if (!this.sameWedge(t0, u, t1, u) || !this.sameWedge(t0, v, t1, v)) return EDGE_SEAM;
+        return EDGE_INTERIOR;
+    }
+
+    // 頂点uの、UVとマテリアルの組み合わせの数(3以上は3)
+    private int countWedges(int u) {
+        int first = -1, second = -1;
+        for (int j = this.mAdjOffsets[u]; j < this.mAdjOffsets[u + 1]; j++) {
+            int t = this.mAdjTris[j];
+            if (first < 0 || this.sameWedge(first, u, t, u)) {
+                if (first < 0) first = t;
+                continue;
+            }
+            if (second < 0 || this.sameWedge(second, u, t, u)) {
+                if (second < 0) second = t;
+                continue;
+            }
+            return 3;
+        }
+        return first < 0 ? 0 : (second < 0 ? 1 : 2);
+    }
+
+    // 三角形taの頂点aと、三角形tbの頂点bのUVとマテリアルが同じか
+    private boolean sameWedge(int ta, int a, int tb, int b) {
+        if (this.mTriMaterials[ta] != this.mTriMaterials[tb]) return false;
+        int ca = this.corner(ta, a), cb = this.corner(tb, b);
+        return this.mTriUVs[6 * ta + 2 * ca] == this.mTriUVs[6 * tb + 2 * cb]
+               && this.mTriUVs[6 * ta + 2 * ca + 1] == this.mTriUVs[6 * tb + 2 * cb + 1];
+    }
+
+    // 三角形tが頂点vを使うか
+    private boolean contains(int t, int v) {
+        return this.mTris[3 * t] == v || this.mTris[3 * t + 1] == v || this.mTris[3 * t + 2] == v;
+    }
+
+    // 三角形tで頂点vが何番目の角か
+    private int corner(int t, int v) {
+        return this.mTris[3 * t] == v ? 0 : (this.mTris[3 * t + 1] == v ? 1 : 2);
+    }
+
+    // 三角形の平面(単位法線とずれ)を求め、面積を返す
+    private double plane(int t, double[] plane) {
+        float[] p = this.mPositions;
+        int a = 3 * this.mTris[3 * t], b = 3 * this.mTris[3 * t + 1], c = 3 * this.mTris[3 * t + 2];
+        double e1x = p[b] - p[a], e1y = p[b + 1] - p[a + 1], e1z = p[b + 2] - p[a + 2];
+        double e2x = p[c] - p[a], e2y = p[c + 1] - p[a + 1], e2z = p[c + 2] - p[a + 2];
+        double nx = e1y * e2z - e1z * e2y, ny = e1z * e2x - e1x * e2z, nz = e1x * e2y - e1y * e2x;
+        double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if (length == 0) return 0;
+        plane[0] = nx / length;
+        plane[1] = ny / length;
+        plane[2] = nz / length;
+        plane[3] = -(plane[0] * p[a] + plane[1] * p[a + 1] + plane[2] * p[a + 2]);
+        return length * 0.5;
+    }
+
+    private static void addQuadric(double[] q, int v, double[] plane, double weight) {
+        double a = plane[0], b = plane[1], c = plane[2], d = plane[3];
+        int i = 10 * v;
+        q[i] += weight * a * a;
+        q[i + 1] += weight * a * b;
+        q[i + 2] += weight * a * c;
+        q[i + 3] += weight * a * d;
+        q[i + 4] += weight * b * b;
+        q[i + 5] += weight * b * c;
+        q[i + 6] += weight * b * d;
+        q[i + 7] += weight * c * c;
+        q[i + 8] += weight * c * d;
+        q[i + 9] += weight * d * d;
+    }
+
+    // 頂点uとvの二次誤差の和を、vの位置で求める(uをvに寄せた場合の誤差)
+    private double collapseCost(int u, int v) {
+        double[] q = this.mQuadrics;
+        int i = 10 * u, j = 10 * v;
+        double x = this.mPositions[3 * v], y = this.mPositions[3 * v + 1], z = this.mPositions[3 * v + 2];
+        double a2 = q[i] + q[j], ab = q[i + 1] + q[j + 1], ac = q[i + 2] + q[j + 2], ad = q[i + 3] + q[j + 3];
+        double b2 = q[i + 4] + q[j + 4], bc = q[i + 5] + q[j + 5], bd = q[i + 6] + q[j + 6];
+        double c2 = q[i + 7] + q[j + 7], cd = q[i + 8] + q[j + 8], d2 = q[i + 9] + q[j + 9];
+        return a2 * x * x + 2 * ab * x * y + 2 * ac * x * z + 2 * ad * x
+               + b2 * y * y + 2 * bc * y * z + 2 * bd * y
+               + c2 * z * z + 2 * cd * z + d2;
+    }
+
+    // 残っている三角形から、頂点ごとの三角形の一覧を作る
+    private void buildAdjacency() {
+        int numVertices = this.mKinds.length;
+        int[] offsets = new int[numVertices + 1];
+        for (int i = 0; i < 3 * this.mNumTris; i++)
+            if (this.mTris[i] >= 0) offsets[this.mTris[i] + 1]++;
+        for (int v = 0; v < numVertices; v++) offsets[v + 1] += offsets[v];
+        int[] fill = Arrays.copyOf(offsets, numVertices);
+        int[] tris = new int[offsets[numVertices]];
+        for (int i = 0; i < 3 * this.mNumTris; i++)
+            if (this.mTris[i] >= 0) tris[fill[this.mTris[i]]++] = i / 3;
+        this.mAdjOffsets = offsets;
+        this.mAdjTris = tris;
+    }
+
+    /**
+     * 誤差の小さい順に、互いに重ならない辺を縮約する
+     * @return 縮約した辺の数
+     */
+    private int collapsePass(int target) {
+        this.buildAdjacency();
+        this.classify();
+        int numVertices = this.mKinds.length;
+
+        // 頂点ごとに、寄せる先として最も誤差の小さい隣の頂点を選ぶ
+        int[] bestTarget = new int[numVertices];
+        double[] bestCost = new double[numVertices];
+        Arrays.fill(bestTarget, -1);
+        for (int u = 0; u < numVertices; u++) {
+            byte kind = this.mKinds[u];
+            if (kind == KIND_LOCKED) continue;
+            if (kind != KIND_FREE) {    // 輪郭や継ぎ目の頂点は、同じ線上の隣の頂点にだけ寄せる
+                for (int k = 0; k < 2; k++) {
+                    int v = this.mSeamNeighbors[2 * u + k];
+                    double cost = this.collapseCost(u, v);
+                    if (bestTarget[u] < 0 || cost < bestCost[u]) {
+                        bestTarget[u] = v;
+                        bestCost[u] = cost;
+                    }
+                }
+                continue;
+            }
+            for (int j = this.mAdjOffsets[u]; j < this.mAdjOffsets[u + 1]; j++) {
+                int t = this.mAdjTris[j];
+                for (int c = 0; c < 3; c++) {
+                    int v = this.mTris[3 * t + c];
+                    if (v == u) continue;
+                    double cost = this.collapseCost(u, v);
+                    if (bestTarget[u] < 0 || cost < bestCost[u]) {
+                        bestTarget[u] = v;
+                        bestCost[u] = cost;
+                    }
+                }
+            }
+        }
+
+        // 誤差の小さい順に並べる(誤差と頂点番号を1つのlongにまとめて並べ替える)
+        int numCandidates = 0;
+        for (int u = 0; u < numVertices; u++) if (bestTarget[u] >= 0) numCandidates++;
+        long[] order = new long[numCandidates];
+        numCandidates = 0;
+        for (int u = 0; u < numVertices; u++) {
+            if (bestTarget[u] < 0) continue;
+            // 非負のfloatのビット列は大小の順と一致する
+            long key = Float.floatToIntBits((float)Math.max(bestCost[u], 0.0));
+            order[numCandidates++] = (key << 32) | u;
+        }
+        Arrays.sort(order);
+
+        boolean[] touched = this.mTouched;   // この走査で縮約に関わった頂点(周りの三角形が変わっている)
+        Arrays.fill(touched, false);
+        int collapsed = 0;
+        for (int i = 0; i < numCandidates && this.mLiveTris > target; i++) {
+            int u = (int)order[i];
+            int v = bestTarget[u];
+            if (touched[u] || touched[v]) continue;
+            if (!this.canCollapse(u, v)) continue;
+
+            for (int j = this.mAdjOffsets[u]; j < this.mAdjOffsets[u + 1]; j++) {
+                int t = this.mAdjTris[j];
+                for (int c = 0; c < 3; c++) touched[this.mTris[3 * t + c]] = true;
+            }
+            this.collapse(u, v);
+            collapsed++;
+        }
+        return collapsed;
+    }
+
+    // uをvに寄せても、面が裏返らず、穴や重なった面ができず、UVを引き継げるか
+    private boolean canCollapse(int u, int v) {
+        int[] stamp = this.mStamp;
+        int mark = this.nextMark();
+        // uとvの両方に隣接する頂点が、辺uvを共有する三角形の頂点だけであること
+        int edgeTris = 0;
+        for (int j = this.mAdjOffsets[u]; j < this.mAdjOffsets[u + 1]; j++) {
+            int t = this.mAdjTris[j];
+            for (int c = 0; c < 3; c++) stamp[this.mTris[3 * t + c]] = mark;
+            if (this.contains(t, v)) edgeTris++;
+        }
+        int common = 0;
+        for (int j = this.mAdjOffsets[v]; j < this.mAdjOffsets[v + 1]; j++) {
+            int t = this.mAdjTris[j];
+            for (int c = 0; c < 3; c++) {
+                int w = this.mTris[3 * t + c];
+                if (w != u && w != v && stamp[w] == mark) {
+                    common++;
+                    stamp[w] = 0;   // 2回数えない
+                }
+            }
+        }
+        if (common != edgeTris) return false;
+
+        float[] p = this.mPositions;
+        for (int j = this.mAdjOffsets[u]; j < this.mAdjOffsets[u + 1]; j++) {
+            int t = this.mAdjTris[j];
+            int a = this.mTris[3 * t], b = this.mTris[3 * t + 1], c = this.mTris[3 * t + 2];
+            if (a == v || b == v || c == v) continue;   // 消える三角形
+
+            // uと同じUVとマテリアルで辺uvを共有する三角形があること(寄せた後のvのUVをそこから取る)
+            if (this.edgeTriOfWedge(t, u, v) < 0) return false;
+
+            // 裏返らないこと
+            double[] before = normal(p, a, b, c);
+            double[] after = normal(p, a == u ? v : a, b == u ? v : b, c == u ? v : c);
+            double lb = Math.sqrt(before[0] * before[0] + before[1] * before[1] + before[2] * before[2]);
+            double la = Math.sqrt(after[0] * after[0] + after[1] * after[1] + after[2] * after[2]);
+            if (la == 0) return false;  // つぶれる
+            if (lb > 0 && (before[0] * after[0] + before[1] * after[1] + before[2] * after[2]) < MIN_FLIP_COS * lb * la) return false;
+        }
+        return true;
+    }
+
+    // 三角形tのuと同じUVとマテリアルで、辺uvを共有する三角形(なければ-1)
+    private int edgeTriOfWedge(int t, int u, int v) {
+        for (int j = this.mAdjOffsets[u]; j < this.mAdjOffsets[u + 1]; j++) {
+            int e = this.mAdjTris[j];
+            if (!this.contains(e, v)) continue;
+            if (this.sameWedge(t, u, e, u)) return e;
+        }
+        return -1;
+    }
+
+    private static double[] normal(float[] p, int a, int b, int c) {
+        double e1x = p[3 * b] - p[3 * a], e1y = p[3 * b + 1] - p[3 * a + 1], e1z = p[3 * b + 2] - p[3 * a + 2];
+        double e2x = p[3 * c] - p[3 * a], e2y = p[3 * c + 1] - p[3 * a + 1], e2z = p[3 * c + 2] - p[3 * a + 2];
+        return new double[] {e1y * e2z - e1z * e2y, e1z * e2x - e1x * e2z, e1x * e2y - e1y * e2x};
+    }
+
+    // uをvに寄せる(辺uvを共有する三角形は消える)
+    private void collapse(int u, int v) {
+        // 残る三角形のuの角は、同じUVとマテリアルで辺uvを共有する三角形での、vのUVにする
+        // (消える三角形を先に消すと探せなくなるので、UVを先に決める)
+        for (int j = this.mAdjOffsets[u]; j < this.mAdjOffsets[u + 1]; j++) {
+            int t = this.mAdjTris[j];
+            if (this.contains(t, v)) continue;
+            int e = this.edgeTriOfWedge(t, u, v);
+            int cu = this.corner(t, u), cv = this.corner(e, v);
+            this.mTriUVs[6 * t + 2 * cu] = this.mTriUVs[6 * e + 2 * cv];
+            this.mTriUVs[6 * t + 2 * cu + 1] = this.mTriUVs[6 * e + 2 * cv + 1];
+        }
+        for (int j = this.mAdjOffsets[u]; j < this.mAdjOffsets[u + 1]; j++) {
+            int t = this.mAdjTris[j];
+            if (this.contains(t, v)) {    // つぶれて消える
+                this.mTris[3 * t] = this.mTris[3 * t + 1] = this.mTris[3 * t + 2] = -1;
+                this.mLiveTris--;
+            } else {
+                this.mTris[3 * t + this.corner(t, u)] = v;
+            }
+        }
+        for (int k = 0; k < 10; k++) this.mQuadrics[10 * v + k] += this.mQuadrics[10 * u + k];
+    }
+
+    // 残った三角形と、使われている頂点だけのObjectにする
+    private void output(MQODoc.MQOObject src, MQODoc.MQOObject dst) {
+        int[] remap = new int[src.numVertices];
+        Arrays.fill(remap, -1);
+        int numVertices = 0;
+        for (int i = 0; i < 3 * this.mNumTris; i++) {
+            int v = this.mTris[i];
+            if (v >= 0 && remap[v] < 0) remap[v] = numVertices++;
+        }
+        float[] positions = new float[3 * numVertices];
+        for (int v = 0; v < src.numVertices; v++)
+            if (remap[v] >= 0) System.arraycopy(src.positions, 3 * v, positions, 3 * remap[v], 3);
+
+        int numFaces = this.mLiveTris;
+        int[] faceOffsets = new int[numFaces + 1];
+        int[] indices = new int[3 * numFaces];
+        int[] materials = new int[numFaces];
+        float[] uvs = new float[6 * numFaces];
+        int f = 0;
+        for (int t = 0; t < this.mNumTris; t++) {
+            if (this.mTris[3 * t] < 0) continue;
+            for (int c = 0; c < 3; c++) indices[3 * f + c] = remap[this.mTris[3 * t + c]];
+            System.arraycopy(this.mTriUVs, 6 * t, uvs, 6 * f, 6);
+            materials[f] = this.mTriMaterials[t];
+            faceOffsets[f + 1] = 3 * (f + 1);
+            f++;
+        }
+
+        dst.shading = src.shading;
+        dst.color = src.color;
+        dst.numVertices = numVertices;
+        dst.positions = positions;
+        dst.normals = new float[3 * numVertices];
+        dst.numFaces = numFaces;
+        dst.faceOffsets = faceOffsets;
+        dst.indices = indices;
+        dst.materials = materials;
+        dst.uvs = uvs;
+        dst.setNormals();
+        dst.bounds = new BoundingVolume(positions, numVertices);
+    }
+}
@@ -0,0 +1,82 @@
+package com.tks.mqoviewert;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 頂点数の多い描画情報を、指定した頂点数以下の描画情報に分割する
+ * 16ビットのインデックスしか使えない環境では、1つの描画情報の頂点数を65536以下にする必要がある
+ * 三角形の並び順はそのままで、分割の境目にある頂点はそれぞれの描画情報に複製される
+ */
+public class MeshSplitter {
+
+    /**
+     * 描画情報を分割する
+     * @param src 元の描画情報(変更しない)
+     * @param maxVertices 1つの描画情報の最大頂点数(3以上)
+     * @param out 分割した描画情報の追加先。分割の必要がなければsrcをそのまま追加する
+     * @exception java.lang.IllegalArgumentException maxVerticesが3未満の場合に投げられます。
+     */
+    public static void split(MQODoc.DrawingInfo src, int maxVertices, List<MQODoc.DrawingInfo> out) {
+        if (maxVertices < 3) throw new IllegalArgumentException();
+
+        int n = src.vertices.length / 3;
+        if (n <= maxVertices) {
+            out.add(src);
+            return;
+        }
+
+        // 作業用の配列(分割後の描画情報ごとに使い回す)
+        float[] vertices = new float[3 * maxVertices];
+        float[] normals = new float[3 * maxVertices];
+        float[] colors = new float[4 * maxVertices];
+        float[] uvs = new float[2 * maxVertices];
+        int[] indices = new int[src.indices.length];
+        int[] batchOf = new int[n];     // 元の頂点が最後に追加された描画情報の番号+1(0は未追加)
+        int[] localOf = new int[n];     // 元の頂点の、その描画情報での頂点番号
+
+        int batch = 1;
+        int count = 0;          // 作業中の描画情報の頂点数
+        int numIndices = 0;     // 作業中の描画情報のインデックス数
+        for (int t = 0; t + 2 < src.indices.length; t += 3) {
+            // この三角形で新たに増える頂点数を数える
+            int added = 0;
+            for (int k = 0; k < 3; k++) {
+                int v = src.indices[t + k];
+                if (batchOf[v] != batch) {
+                    boolean duplicate = false;
+                    for (int l = 0; l < k; l++) duplicate |= (src.indices[t + l] == v);
+                    if (!duplicate) added++;
+                }
+            }
+            if (count + added > maxVertices) {  // 入りきらないので、ここまでを1つの描画情報にする
+                out.add(newDrawingInfo(vertices, normals, colors, uvs, count, indices, numIndices, src.texture));
+                batch++;
+                count = 0;
+                numIndices = 0;
+            }
+
+            for (int k = 0; k < 3; k++) {
+                int v = src.indices[t + k];
+                if (batchOf[v] != batch) {  // この描画情報に初めて出てきた頂点
+                    System.arraycopy(src.vertices, 3 * v, vertices, 3 * count, 3);
+                    System.arraycopy(src.normals, 3 * v, normals, 3 * count, 3);
+                    System.arraycopy(src.colors, 4 * v, colors, 4 * count, 4);
+                    System.arraycopy(src.uvs, 2 * v, uvs, 2 * count, 2);
+                    batchOf[v] = batch;
+                    localOf[v] = count++;
+                }
+                indices[numIndices++] = localOf[v];
+            }
+        }
+        if (numIndices > 0)
+            out.add(newDrawingInfo(vertices, normals, colors, uvs, count, indices, numIndices, src.texture));
+    }
+
+    private static MQODoc.DrawingInfo newDrawingInfo(float[] vertices, float[] normals, float[] colors, float[] uvs, int count,
+                                                     int[] indices, int numIndices, String texture) {
+        return new MQODoc.DrawingInfo(Arrays.copyOf(vertices, 3 * count), Arrays.copyOf(normals, 3 * count),
+                                      Arrays.copyOf(colors, 4 * count), Arrays.copyOf(uvs, 2 * count),
+                                      Arrays.copyOf(indices, numIndices), texture);
+    }
+}
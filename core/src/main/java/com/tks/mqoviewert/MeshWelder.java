@@ -0,0 +1,108 @@
+package com.tks.mqoviewert;
+
+import java.util.Arrays;
+
+/**
+ * 頂点座標、法線、色、UVがすべて一致する頂点を1つにまとめ、インデックスで共有する描画情報を作る
+ * スムーズシェーディングの面では、隣り合う面の頂点がまとめられる
+ */
+public class MeshWelder {
+
+    private int mInputVertices;     // まとめる前の頂点数(累計)
+    private int mOutputVertices;    // まとめた後の頂点数(累計)
+
+    /**
+     * 描画情報の頂点をまとめる
+     * @param src 元の描画情報(変更しない)
+     * @return 頂点をまとめた描画情報
+     */
+    public MQODoc.DrawingInfo weld(MQODoc.DrawingInfo src) {
+        int n = src.vertices.length / 3;
+        float[] vertices = new float[3 * n];
+        float[] normals = new float[3 * n];
+        float[] colors = new float[4 * n];
+        float[] uvs = new float[2 * n];
+        int[] remap = new int[n];   // 元の頂点番号 -> まとめた後の頂点番号
+
+        // オープンアドレス法のハッシュ表(まとめた後の頂点番号を格納、空きは-1)
+        int mask = tableSize(n) - 1;
+        int[] table = new int[mask + 1];
+        Arrays.fill(table, -1);
+
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            int slot = hash(src, i) & mask;
+            int found = -1;
+            while (table[slot] >= 0) {
+                if (equals(src, i, vertices, normals, colors, uvs, table[slot])) {
+                    found = table[slot];
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (found < 0) {    // 初めて出てきた頂点
+                System.arraycopy(src.vertices, 3 * i, vertices, 3 * count, 3);
+                System.arraycopy(src.normals, 3 * i, normals, 3 * count, 3);
+                System.arraycopy(src.colors, 4 * i, colors, 4 * count, 4);
+                System.arraycopy(src.uvs, 2 * i, uvs, 2 * count, 2);
+                table[slot] = count;
+                found = count++;
+            }
+            remap[i] = found;
+        }
+
+        int[] indices = new int[src.indices.length];
+        for (int i = 0; i < indices.length; i++)
+            indices[i] = remap[src.indices[i]];
+
+        this.mInputVertices += n;
+        this.mOutputVertices += count;
+
+        return new MQODoc.DrawingInfo(Arrays.copyOf(vertices, 3 * count), Arrays.copyOf(normals, 3 * count),
+                                      Arrays.copyOf(colors, 4 * count), Arrays.copyOf(uvs, 2 * count), indices, src.texture);
+    }
+
+    // まとめる前の頂点数(これまでにweld()した分の累計)
+    public int getInputVertices() {
+        return this.mInputVertices;
+    }
+
+    // まとめた後の頂点数(これまでにweld()した分の累計)
+    public int getOutputVertices() {
+        return this.mOutputVertices;
+    }
+
+    // 要素数nの2倍以上の2のべき乗
+    private static int tableSize(int n) {
+        int size = 16;
+        while (size < 2 * n) size <<= 1;
+        return size;
+    }
+
+    // i番目の頂点の全属性からハッシュ値を求める
+    private static int hash(MQODoc.DrawingInfo src, int i) {
+        int h = 0;
+        for (int k = 0; k < 3; k++) h = 31 * h + Float.floatToIntBits(src.vertices[3 * i + k]);
+        for (int k = 0; k < 3; k++) h = 31 * h + Float.floatToIntBits(src.normals[3 * i + k]);
+        for (int k = 0; k < 4; k++) h = 31 * h + Float.floatToIntBits(src.colors[4 * i + k]);
+        for (int k = 0; k < 2; k++) h = 31 * h + Float.floatToIntBits(src.uvs[2 * i + k]);
+        // 下位ビットにも偏りなく散らす
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return h;
+    }
+
+    // 元のi番目の頂点と、まとめた後のj番目の頂点の全属性が一致するか
+    private static boolean equals(MQODoc.DrawingInfo src, int i, float[] vertices, float[] normals, float[] colors, float[] uvs, int j) {
+        for (int k = 0; k < 3; k++)
+            if (Float.floatToIntBits(src.vertices[3 * i + k]) != Float.floatToIntBits(vertices[3 * j + k])) return false;
+        for (int k = 0; k < 3; k++)
+            if (Float.floatToIntBits(src.normals[3 * i + k]) != Float.floatToIntBits(normals[3 * j + k])) return false;
+        for (int k = 0; k < 4; k++)
+            if (Float.floatToIntBits(src.colors[4 * i + k]) != Float.floatToIntBits(colors[4 * j + k])) return false;
+        for (int k = 0; k < 2; k++)
+            if (Float.floatToIntBits(src.uvs[2 * i + k]) != Float.floatToIntBits(uvs[2 * j + k])) return false;
+        return true;
+    }
+}
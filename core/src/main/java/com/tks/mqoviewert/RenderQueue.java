@@ -0,0 +1,135 @@
+package com.tks.mqoviewert;
+
+import java.util.Arrays;
+
+/**
+ * 1フレーム分の描画情報を、描画する順に並べ替える
+ * 描画情報ごとにシェーダ、テクスチャ、視点からの奥行きから64ビットのソートキーを作り、キーの順に並べる
+ *   不透明なもの: シェーダ、テクスチャの順にまとめ(切り替えを減らす)、同じ組み合わせの中では手前から奥へ(重ね塗りを減らす)
+ *   半透明なもの: 不透明なものの後に、奥から手前へ(正しく重ねる)。同じ奥行きならシェーダ、テクスチャでまとめる
+ * キーの下位ビットに描画情報の番号を入れ、long配列のまま並べるので、フレームごとにオブジェクトを作らない
+ */
+public class RenderQueue {
+    public static final int MAX_PROGRAMS = 2;           // シェーダの番号は0～1
+    public static final int MAX_TEXTURES = 1 << 16;     // テクスチャの番号は0～65535(0はテクスチャなし)
+    public static final int MAX_ITEMS = 1 << 22;        // 1フレームに積める描画情報の数
+
+    // キーのビット配置(最上位ビットは符号なので使わない)
+    private static final int INDEX_BITS = 22;
+    private static final int DEPTH_BITS = 23;
+    private static final int TEXTURE_BITS = 16;
+    private static final long DEPTH_MAX = (1L << DEPTH_BITS) - 1;
+    private static final long TRANSLUCENT = 1L << 62;
+    // 不透明: [62]=0 [61]シェーダ [60..45]テクスチャ [44..22]奥行き [21..0]番号
+    private static final int OPAQUE_PROGRAM_SHIFT = INDEX_BITS + DEPTH_BITS + TEXTURE_BITS;
+    private static final int OPAQUE_TEXTURE_SHIFT = INDEX_BITS + DEPTH_BITS;
+    private static final int OPAQUE_DEPTH_SHIFT = INDEX_BITS;
+    // 半透明: [62]=1 [61..39]奥行き(遠いほど小さい) [38]シェーダ [37..22]テクスチャ [21..0]番号
+    private static final int TRANSLUCENT_DEPTH_SHIFT = INDEX_BITS + TEXTURE_BITS + 1;
+    private static final int TRANSLUCENT_PROGRAM_SHIFT = INDEX_BITS + TEXTURE_BITS;
+    private static final int TRANSLUCENT_TEXTURE_SHIFT = INDEX_BITS;
+
+    private long[] mKeys = new long[64];
+    private int mSize;
+    private int mStateChanges;          // 並べ替えた順に描画する場合の、シェーダとテクスチャの切り替え回数
+    private int mUnsortedStateChanges;  // 積んだ順に描画する場合の切り替え回数(比較用)
+
+    // 積んだ描画情報をすべて取り除く(フレームの始めに呼び出す)
+    public void clear() {
+        this.mSize = 0;
+        this.mStateChanges = 0;
+        this.mUnsortedStateChanges = 0;
+    }
+
+    /**
+     * 描画情報を積む
+     * @param index 描画情報の番号(0～MAX_ITEMS - 1)
+     * @param program シェーダの番号(0～MAX_PROGRAMS - 1)
+     * @param texture テクスチャの番号(0～MAX_TEXTURES - 1、0はテクスチャなし)
+     * @param depth 視点からの奥行き(0が一番手前、1が一番奥。範囲外は丸める)
+     * @param translucent 半透明か
+     * @exception java.lang.IllegalArgumentException 番号が範囲外の場合に投げられます。
+     */
+    public void add(int index, int program, int texture, float depth, boolean translucent) {
+        if (index < 0 || index >= MAX_ITEMS || program < 0 || program >= MAX_PROGRAMS || texture < 0 || texture >= MAX_TEXTURES)
+            throw new IllegalArgumentException();
+        long d = (long)(Math.min(Math.max(depth, 0.0f), 1.0f) * DEPTH_MAX);
+        long key;
+        if (translucent) {
+            key = TRANSLUCENT | ((DEPTH_MAX - d) << TRANSLUCENT_DEPTH_SHIFT) | ((long)program << TRANSLUCENT_PROGRAM_SHIFT)
+                | ((long)texture << TRANSLUCENT_TEXTURE_SHIFT) | index;
+        } else {
+            key = ((long)program << OPAQUE_PROGRAM_SHIFT) | ((long)texture << OPAQUE_TEXTURE_SHIFT) | (d << OPAQUE_DEPTH_SHIFT) | index;
+        }
+        if (this.mSize == this.mKeys.length) this.mKeys = Arrays.copyOf(this.mKeys, 2 * this.mSize);
+        this.mKeys[this.mSize++] = key;
+    }
+
+    // 積んだ描画情報をキーの順に並べ替え、切り替え回数を数える
+    public void sort() {
+        this.mUnsortedStateChanges = this.countStateChanges();
+        Arrays.sort(this.mKeys, 0, this.mSize);
+        this.mStateChanges = this.countStateChanges();
+    }
+
+    // 積んだ描画情報の数
+    public int size() {
+        return this.mSize;
+    }
+
+    // i番目に描画する描画情報の番号
+    public int getIndex(int i) {
+        return (int)(this.mKeys[i] & (MAX_ITEMS - 1));
+    }
+
+    // i番目に描画する描画情報のシェーダの番号
+    public int getProgram(int i) {
+        long key = this.mKeys[i];
+        return (int)((key >>> ((key & TRANSLUCENT) != 0 ? TRANSLUCENT_PROGRAM_SHIFT : OPAQUE_PROGRAM_SHIFT)) & (MAX_PROGRAMS - 1));
+    }
+
+    // i番目に描画する描画情報のテクスチャの番号(0はテクスチャなし)
+    public int getTexture(int i) {
+        long key = this.mKeys[i];
+        return (int)((key >>> ((key & TRANSLUCENT) != 0 ? TRANSLUCENT_TEXTURE_SHIFT : OPAQUE_TEXTURE_SHIFT)) & (MAX_TEXTURES - 1));
+    }
+
+    // i番目に描画する描画情報が半透明か(半透明なものは不透明なものの後にまとまっている)
+    public boolean isTranslucent(int i) {
+        return (this.mKeys[i] & TRANSLUCENT) != 0;
+    }
+
+    // 並べ替えた順に描画する場合の、シェーダとテクスチャの切り替え回数(sort()の後で有効)
+    public int getStateChanges() {
+        return this.mStateChanges;
+    }
+
+    // 積んだ順に描画した場合の、シェーダとテクスチャの切り替え回数(sort()の後で有効)
+    public int getUnsortedStateChanges() {
+        return this.mUnsortedStateChanges;
+    }
+
+    // 今の並び順で描画した場合の切り替え回数(シェーダの切り替え、テクスチャの結び付け、半透明の描画の開始をそれぞれ1回と数える)
+    private int countStateChanges() {
+        int changes = 0;
+        int program = -1;
+        int texture = 0;
+        boolean translucent = false;
+        for (int i = 0; i < this.mSize; i++) {
+            if (this.getProgram(i) != program) {
+                program = this.getProgram(i);
+                changes++;
+            }
+            int t = this.getTexture(i);
+            if (t != 0 && t != texture) {   // テクスチャを使わない描画情報では結び付けたままにする
+                texture = t;
+                changes++;
+            }
+            if (this.isTranslucent(i) != translucent) {
+                translucent = this.isTranslucent(i);
+                changes++;
+            }
+        }
+        return changes;
+    }
+}
@@ -0,0 +1,62 @@
+package com.tks.mqoviewert;
+
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * 大きさを指定して作る合成のモデル(ベンチマークとテストで使う)
+ */
+public class SyntheticModels {
+
+    /**
+     * 波打った格子状のObjectを並べたモデルを作る(乱数を使わないので毎回同じ内容になる)
+     * 面は四角形で、8つに1つは三角形にする。Objectごとにスムーズ/フラットを切り替え、マテリアルの半分にはテクスチャを付ける
+     * @param objects Object数
+     * @param grid 1 Objectの一辺の四角形の数
+     * @param materials マテリアル数
+     * @return MQOファイルの内容
+     */
+    public static byte[] generate(int objects, int grid, int materials) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Metasequoia Document\r\nFormat Text Ver 1.0\r\n\r\nScene {\r\n\tpos 0 0 1500\r\n}\r\n");
+        sb.append("Material ").append(materials).append(" {\r\n");
+        for (int m = 0; m < materials; m++) {
+            sb.append(String.format(Locale.ROOT, "\t\"mat%d\" col(%.3f 0.500 0.500 1.000) dif(0.800)", m, m / (float)materials));
+            if (m % 2 == 1) sb.append(" tex(\"tex").append(m).append(".bmp\")");
+            sb.append("\r\n");
+        }
+        sb.append("}\r\n");
+
+        for (int o = 0; o < objects; o++) {
+            sb.append("Object \"obj").append(o).append("\" {\r\n");
+            sb.append("\tshading ").append(o % 3 == 0 ? 0 : 1).append("\r\n\tfacet 59.5\r\n");
+            sb.append("\tvertex ").append((grid + 1) * (grid + 1)).append(" {\r\n");
+            for (int y = 0; y <= grid; y++) {
+                for (int x = 0; x <= grid; x++) {
+                    double px = x * 10 + o * 3;
+                    double py = Math.sin(x * 0.3) * 20 + Math.cos(y * 0.2) * 15;
+                    double pz = y * 10 - o * 5;
+                    sb.append(String.format(Locale.ROOT, "\t\t%.4f %.4f %.4f\r\n", px, py, pz));
+                }
+            }
+            sb.append("\t}\r\n");
+            sb.append("\tface ").append(grid * grid).append(" {\r\n");
+            for (int y = 0; y < grid; y++) {
+                for (int x = 0; x < grid; x++) {
+                    int a = y * (grid + 1) + x, b = a + 1, c = a + grid + 2, d = a + grid + 1;
+                    int m = ((x / 4) + (y / 4)) % materials;
+                    float u0 = x / (float)grid, v0 = y / (float)grid, u1 = (x + 1) / (float)grid, v1 = (y + 1) / (float)grid;
+                    if (((x + y) & 7) == 0)
+                        sb.append(String.format(Locale.ROOT, "\t\t3 V(%d %d %d) M(%d) UV(%.5f %.5f %.5f %.5f %.5f %.5f)\r\n",
+                                                a, c, d, m, u0, v0, u1, v1, u0, v1));
+                    else
+                        sb.append(String.format(Locale.ROOT, "\t\t4 V(%d %d %d %d) M(%d) UV(%.5f %.5f %.5f %.5f %.5f %.5f %.5f %.5f)\r\n",
+                                                a, b, c, d, m, u0, v0, u1, v0, u1, v1, u0, v1));
+                }
+            }
+            sb.append("\t}\r\n}\r\n");
+        }
+        sb.append("Eof\r\n");
+        return sb.toString().getBytes(Charset.forName("US-ASCII"));
+    }
+}
@@ -0,0 +1,90 @@
+package com.tks.mqoviewert;
+
+/**
+ * 処理時間(ナノ秒)の分布を数えるヒストグラム
+ * 配列は最初に確保しておき、record()ではオブジェクトを作らない(フレームごとの計測にも使える)
+ * 区間は2のべき乗ごとに32等分するので、パーセンタイルの誤差は約3%以内。最大値は正確に持つ
+ * 64ns未満は1ns刻み、約18分(2^40ns)以上は最後の区間に数える
+ */
+public class TimingHistogram {
+    private static final int SUB_BITS = 5;                  // 2のべき乗ごとの区間の数(2^SUB_BITS)
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int LINEAR_COUNT = 2 * SUB_COUNT;  // これ未満の値は1ns刻み
+    private static final int MAX_SHIFT = 40 - SUB_BITS;
+    private static final int NUM_BUCKETS = LINEAR_COUNT + MAX_SHIFT * SUB_COUNT;
+
+    private final long[] mCounts = new long[NUM_BUCKETS];
+    private long mCount;
+    private long mTotal;    // 合計(ナノ秒)
+    private long mMax;
+
+    /**
+     * 1回分の時間を数える
+     * @param nanos 時間(ナノ秒)。負の値は0とする
+     */
+    public synchronized void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        this.mCounts[bucketOf(nanos)]++;
+        this.mCount++;
+        this.mTotal += nanos;
+        if (nanos > this.mMax) this.mMax = nanos;
+    }
+
+    // 数えた回数
+    public synchronized long getCount() {
+        return this.mCount;
+    }
+
+    // 平均(ナノ秒、数えていなければ0)
+    public synchronized long getMean() {
+        return this.mCount > 0 ? this.mTotal / this.mCount : 0;
+    }
+
+    // 最大値(ナノ秒、数えていなければ0)
+    public synchronized long getMax() {
+        return this.mMax;
+    }
+
+    /**
+     * パーセンタイル値を求める
+     * @param percentile 0～100
+     * @return その割合の回数がこの値以下になる時間(ナノ秒、区間の上端。最大値は超えない)。数えていなければ0
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (this.mCount == 0) return 0;
+        long rank = (long)Math.ceil(Math.min(Math.max(percentile, 0.0), 100.0) / 100.0 * this.mCount);
+        if (rank < 1) rank = 1;
+        long cumulative = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            cumulative += this.mCounts[i];
+            if (cumulative >= rank) return Math.min(upperBoundOf(i), this.mMax);
+        }
+        return this.mMax;
+    }
+
+    // 数えた値を全部消す
+    public synchronized void reset() {
+        for (int i = 0; i < NUM_BUCKETS; i++) this.mCounts[i] = 0;
+        this.mCount = 0;
+        this.mTotal = 0;
+        this.mMax = 0;
+    }
+
+    // 値の入る区間
+    private static int bucketOf(long nanos) {
+        if (nanos < LINEAR_COUNT) return (int)nanos;
+        int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BITS;  // 上位SUB_BITS + 1ビットを残す
+        if (shift > MAX_SHIFT) return NUM_BUCKETS - 1;
+        int top = (int)(nanos >>> shift);   // SUB_COUNT～2 * SUB_COUNT - 1
+        return LINEAR_COUNT + (shift - 1) * SUB_COUNT + (top - SUB_COUNT);
+    }
+
+    // 区間に入る最大の値
+    private static long upperBoundOf(int bucket) {
+        if (bucket < LINEAR_COUNT) return bucket;
+        if (bucket == NUM_BUCKETS - 1) return Long.MAX_VALUE;
+        int shift = (bucket - LINEAR_COUNT) / SUB_COUNT + 1;
+        long top = (bucket - LINEAR_COUNT) % SUB_COUNT + SUB_COUNT;
+        return ((top + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,118 @@
+package com.tks.mqoviewert;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * 処理段階ごとの時間のヒストグラムをまとめたもの
+ * 段階は番号で指定する(名前はレポートに出す)。レポートはCSVかJSONで書き出す
+ */
+public class Timings {
+    private static final double[] PERCENTILES = {50, 95, 99};
+
+    private final String[] mNames;      // 段階の名前
+    private final TimingHistogram[] mHistograms;
+
+    /**
+     * @param names 段階の名前(番号の順)
+     */
+    public Timings(String... names) {
+        this.mNames = names.clone();
+        this.mHistograms = new TimingHistogram[names.length];
+        for (int i = 0; i < names.length; i++) this.mHistograms[i] = new TimingHistogram();
+    }
+
+    // 段階の数
+    public int size() {
+        return this.mNames.length;
+    }
+
+    // 段階の名前
+    public String getName(int phase) {
+        return this.mNames[phase];
+    }
+
+    // 段階のヒストグラム
+    public TimingHistogram get(int phase) {
+        return this.mHistograms[phase];
+    }
+
+    // 段階の時間を1回分数える(オブジェクトを作らない)
+    public void record(int phase, long nanos) {
+        this.mHistograms[phase].record(nanos);
+    }
+
+    // 全部の段階の数えた値を消す
+    public void reset() {
+        for (int i = 0; i < this.mHistograms.length; i++) this.mHistograms[i].reset();
+    }
+
+    /**
+     * 段階ごとの回数、平均、p50、p95、p99、最大(ミリ秒)をCSVで書き出す(1行目は見出し)
+     */
+    public void writeCsv(Writer writer) throws IOException {
+        writer.write("phase,count,mean_ms,p50_ms,p95_ms,p99_ms,max_ms\n");
+        for (int i = 0; i < this.mNames.length; i++) {
+            TimingHistogram histogram = this.mHistograms[i];
+            writer.write(this.mNames[i]);
+            writer.write(",");
+            writer.write(Long.toString(histogram.getCount()));
+            writer.write(",");
+            writer.write(formatMillis(histogram.getMean()));
+            for (int j = 0; j < PERCENTILES.length; j++) {
+                writer.write(",");
+                writer.write(formatMillis(histogram.getPercentile(PERCENTILES[j])));
+            }
+            writer.write(",");
+            writer.write(formatMillis(histogram.getMax()));
+            writer.write("\n");
+        }
+        writer.flush();
+    }
+
+    /**
+     * 段階の名前をキーにして、CSVと同じ値をJSONで書き出す
+     */
+    public void writeJson(Writer writer) throws IOException {
+        writer.write("{\n");
+        for (int i = 0; i < this.mNames.length; i++) {
+            TimingHistogram histogram = this.mHistograms[i];
+            writer.write("  \"" + escapeJson(this.mNames[i]) + "\": {");
+            writer.write("\"count\": " + histogram.getCount());
+            writer.write(", \"mean_ms\": " + formatMillis(histogram.getMean()));
+            for (int j = 0; j < PERCENTILES.length; j++) {
+                writer.write(", \"p" + (int)PERCENTILES[j] + "_ms\": " + formatMillis(histogram.getPercentile(PERCENTILES[j])));
+            }
+            writer.write(", \"max_ms\": " + formatMillis(histogram.getMax()));
+            writer.write(i < this.mNames.length - 1 ? "},\n" : "}\n");
+        }
+        writer.write("}\n");
+        writer.flush();
+    }
+
+    /**
+     * 画面に出すための1段階1行の要約(回数が0の段階は飛ばす)
+     */
+    public String summary() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < this.mNames.length; i++) {
+            TimingHistogram histogram = this.mHistograms[i];
+            if (histogram.getCount() == 0) continue;
+            if (sb.length() > 0) sb.append('\n');
+            sb.append(String.format(Locale.US, "%-7s n=%d p50=%s p95=%s p99=%s max=%s ms", this.mNames[i], histogram.getCount(),
+                    formatMillis(histogram.getPercentile(50)), formatMillis(histogram.getPercentile(95)),
+                    formatMillis(histogram.getPercentile(99)), formatMillis(histogram.getMax())));
+        }
+        return sb.toString();
+    }
+
+    // ナノ秒をミリ秒の文字列にする(ロケールによらず小数点は'.')
+    private static String formatMillis(long nanos) {
+        return String.format(Locale.US, "%.3f", nanos / 1e6);
+    }
+
+    private static String escapeJson(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
@@ -0,0 +1,183 @@
+package com.tks.mqoviewert;
+
+import java.util.Arrays;
+
+/**
+ * 描画情報の三角形の並び順を、GPUの頂点キャッシュ(変換済みの頂点を使い回すキャッシュ)に当たりやすい順に並べ替える
+ * 三角形はTipsify(Sander et al. 2007)で並べ、頂点は並べ替えた三角形で初めて使われる順に並べ直す(頂点の読み込みも連続に近くなる)
+ * 効果はFIFOの頂点キャッシュを真似て数えたACMR(三角形1つあたりのキャッシュミス数。0.5～3で、小さいほどよい)で確かめられる
+ */
+public class VertexCacheOptimizer {
+    public static final int DEFAULT_CACHE_SIZE = 16;    // 既定の頂点キャッシュの大きさ(多くのGPUはこれ以上ある)
+
+    private final int mCacheSize;
+    private long mNumTriangles;     // 並べ替えた三角形の数(累計)
+    private long mMissesBefore;     // 並べ替える前のキャッシュミス数(累計)
+    private long mMissesAfter;      // 並べ替えた後のキャッシュミス数(累計)
+
+    // コンストラクタ
+    public VertexCacheOptimizer() {
+        this(DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param cacheSize 並べ替えとACMRの計算で想定する頂点キャッシュの大きさ(3以上)
+     * @exception java.lang.IllegalArgumentException cacheSizeが3未満の場合に投げられます。
+     */
+    public VertexCacheOptimizer(int cacheSize) {
+        if (cacheSize < 3) throw new IllegalArgumentException();
+        this.mCacheSize = cacheSize;
+    }
+
+    /**
+     * 描画情報の三角形と頂点を並べ替える
+     * @param src 元の描画情報(変更しない)
+     * @return 並べ替えた描画情報。頂点と三角形の集まりは元と同じ
+     */
+    public MQODoc.DrawingInfo optimize(MQODoc.DrawingInfo src) {
+        int n = src.vertices.length / 3;
+        int[] indices = this.tipsify(src.indices, n);
+
+        // 頂点を初めて使われる順に並べ直す(使われていない頂点は後ろに残す)
+        int[] remap = new int[n];   // 元の頂点番号 -> 並べ直した頂点番号
+        Arrays.fill(remap, -1);
+        int count = 0;
+        for (int i = 0; i < indices.length; i++) {
+            int v = indices[i];
+            if (remap[v] < 0) remap[v] = count++;
+            indices[i] = remap[v];
+        }
+        for (int v = 0; v < n; v++)
+            if (remap[v] < 0) remap[v] = count++;
+
+        float[] vertices = new float[3 * n];
+        float[] normals = new float[3 * n];
+        float[] colors = new float[4 * n];
+        float[] uvs = new float[2 * n];
+        for (int v = 0; v < n; v++) {
+            int w = remap[v];
+            System.arraycopy(src.vertices, 3 * v, vertices, 3 * w, 3);
+            System.arraycopy(src.normals, 3 * v, normals, 3 * w, 3);
+            System.arraycopy(src.colors, 4 * v, colors, 4 * w, 4);
+            System.arraycopy(src.uvs, 2 * v, uvs, 2 * w, 2);
+        }
+
+        this.mNumTriangles += indices.length / 3;
+        this.mMissesBefore += countMisses(src.indices, n, this.mCacheSize);
+        this.mMissesAfter += countMisses(indices, n, this.mCacheSize);
+
+        MQODoc.DrawingInfo ret = new MQODoc.DrawingInfo(vertices, normals, colors, uvs, indices, src.texture);
+        ret.object = src.object;
+        ret.lod = src.lod;
+        return ret;
+    }
+
+    // 並べ替えた三角形の数(これまでにoptimize()した分の累計)
+    public long getNumTriangles() {
+        return this.mNumTriangles;
+    }
+
+    // 並べ替える前のキャッシュミス数(これまでにoptimize()した分の累計)
+    public long getMissesBefore() {
+        return this.mMissesBefore;
+    }
+
+    // 並べ替えた後のキャッシュミス数(これまでにoptimize()した分の累計)
+    public long getMissesAfter() {
+        return this.mMissesAfter;
+    }
+
+    /**
+     * FIFOの頂点キャッシュを真似て、インデックスの並びのキャッシュミス数を数える
+     * ACMRはこれを三角形の数で割ったもの
+     * @param indices 三角形の頂点インデックス
+     * @param numVertices 頂点数
+     * @param cacheSize 頂点キャッシュの大きさ
+     * @return キャッシュミス数
+     */
+    public static long countMisses(int[] indices, int numVertices, int cacheSize) {
+        int[] inserted = new int[numVertices];  // 頂点がキャッシュに入った時刻+1(0は入ったことがない)
+        int time = 0;   // キャッシュに入った頂点の数(FIFOなので、time - cacheSize 以前に入った頂点は追い出されている)
+        long misses = 0;
+        for (int i = 0; i < indices.length; i++) {
+            int v = indices[i];
+            if (inserted[v] == 0 || time - (inserted[v] - 1) > cacheSize) {
+                inserted[v] = ++time;
+                misses++;
+            }
+        }
+        return misses;
+    }
+
+    // Tipsifyで三角形を並べ替えたインデックスを作る
+    private int[] tipsify(int[] src, int numVertices) {
+        int numTris = src.length / 3;
+        int k = this.mCacheSize;
+
+        // 頂点ごとの三角形の一覧
+        int[] offsets = new int[numVertices + 1];
+        for (int i = 0; i < 3 * numTris; i++) offsets[src[i] + 1]++;
+        for (int v = 0; v < numVertices; v++) offsets[v + 1] += offsets[v];
+        int[] adjTris = new int[3 * numTris];
+        int[] fill = Arrays.copyOf(offsets, numVertices);
+        for (int i = 0; i < 3 * numTris; i++) adjTris[fill[src[i]]++] = i / 3;
+
+        int[] live = new int[numVertices];  // まだ出力していない三角形の数
+        for (int v = 0; v < numVertices; v++) live[v] = offsets[v + 1] - offsets[v];
+        int[] cacheTime = new int[numVertices]; // 頂点がキャッシュに入った時刻(time - cacheTime > k なら入っていない)
+        int time = k + 1;
+        boolean[] emitted = new boolean[numTris];
+        int[] deadEnd = new int[3 * numTris];   // 行き詰まった時に戻る頂点のスタック
+        int deadEndTop = 0;
+        int[] candidates = new int[3 * numTris];    // 次に扇の中心にする頂点の候補
+        int cursor = 0;     // 行き詰まった時に先頭から探す位置
+
+        int[] dst = new int[3 * numTris];
+        int numEmitted = 0;
+        int f = numVertices > 0 ? 0 : -1;   // 扇の中心の頂点
+        while (f >= 0) {
+            // fを使う三角形をすべて出力する
+            int numCandidates = 0;
+            for (int j = offsets[f]; j < offsets[f + 1]; j++) {
+                int t = adjTris[j];
+                if (emitted[t]) continue;
+                emitted[t] = true;
+                for (int c = 0; c < 3; c++) {
+                    int v = src[3 * t + c];
+                    dst[numEmitted++] = v;
+                    deadEnd[deadEndTop++] = v;
+                    candidates[numCandidates++] = v;
+                    live[v]--;
+                    if (time - cacheTime[v] > k) cacheTime[v] = time++;
+                }
+            }
+
+            // 次の中心は、キャッシュに残っているうちに三角形を出し切れる頂点のうち、一番前に入ったもの
+            int next = -1;
+            int best = -1;
+            for (int i = 0; i < numCandidates; i++) {
+                int v = candidates[i];
+                if (live[v] <= 0) continue;
+                int priority = 0;
+                if (time - cacheTime[v] + 2 * live[v] <= k) priority = time - cacheTime[v];
+                if (priority > best) {
+                    best = priority;
+                    next = v;
+                }
+            }
+            if (next < 0) {
+                // 行き詰まったら、最近使った頂点、それもなければ先頭から三角形の残っている頂点を探す
+                while (deadEndTop > 0 && next < 0) {
+                    int v = deadEnd[--deadEndTop];
+                    if (live[v] > 0) next = v;
+                }
+                while (next < 0 && cursor < numVertices) {
+                    if (live[cursor] > 0) next = cursor;
+                    else cursor++;
+                }
+            }
+            f = next;
+        }
+        return dst;
+    }
+}
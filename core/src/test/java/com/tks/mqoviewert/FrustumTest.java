@@ -0,0 +1,64 @@
+package com.tks.mqoviewert;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FrustumTest {
+
+    // 頂点を囲む箱と球
+    @Test
+    public void boundingVolumeEnclosesVertices() {
+        BoundingVolume bounds = new BoundingVolume(new float[]{1, 2, 3, -1, 0, 5, 3, -2, 4});
+        assertEquals(-1.0f, bounds.min[0], 0.0f);
+        assertEquals(-2.0f, bounds.min[1], 0.0f);
+        assertEquals(3.0f, bounds.min[2], 0.0f);
+        assertEquals(3.0f, bounds.max[0], 0.0f);
+        assertEquals(2.0f, bounds.max[1], 0.0f);
+        assertEquals(5.0f, bounds.max[2], 0.0f);
+        assertEquals(1.0f, bounds.center[0], 0.0f);
+        assertEquals(0.0f, bounds.center[1], 0.0f);
+        assertEquals(4.0f, bounds.center[2], 0.0f);
+        assertEquals((float)Math.sqrt(8), bounds.radius, 1e-6f);   // 最も遠い(3, -2, 4)までの距離
+
+        assertTrue(new BoundingVolume(new float[0]).isEmpty());
+        assertTrue(new BoundingVolume(new float[]{1, 2, 3}, 0).isEmpty());
+        assertFalse(new BoundingVolume(new float[]{1, 2, 3}, 1).isEmpty());
+        assertEquals(0.0f, new BoundingVolume(new float[]{1, 2, 3}).radius, 0.0f);
+    }
+
+    // 原点から-z方向を見る視野角90度、縦横比1、近平面1、遠平面100の視錐台
+    @Test
+    public void culls() {
+        float[] m = new float[16];
+        MathUtils.setPerspectiveM(m, 0, 90.0, 1.0, 1.0, 100.0);
+        Frustum frustum = new Frustum();
+        frustum.set(m);
+
+        assertTrue(frustum.intersects(box(0, 0, -10, 1)));      // 中
+        assertTrue(frustum.intersects(box(0, 0, -1, 0.5f)));    // 近平面にかかる
+        assertTrue(frustum.intersects(box(10, 0, -10, 1)));     // 右の平面にかかる
+        assertTrue(frustum.intersects(box(0, 0, -100, 5)));     // 遠平面にかかる
+        assertFalse(frustum.intersects(box(0, 0, 10, 1)));      // 後ろ
+        assertFalse(frustum.intersects(box(0, 0, -200, 5)));    // 遠平面より奥
+        assertFalse(frustum.intersects(box(20, 0, -10, 1)));    // 右の外
+        assertFalse(frustum.intersects(box(0, -20, -10, 1)));   // 下の外
+        assertFalse(frustum.intersects(new BoundingVolume(new float[0])));
+
+        // 球は右の平面にかかるが、箱は全部外にある
+        assertFalse(frustum.intersects(box(12.1f, 0, -10, 1)));
+    }
+
+    // 中心と半分の大きさから、立方体の8頂点を囲む
+    private static BoundingVolume box(float x, float y, float z, float half) {
+        float[] positions = new float[24];
+        for (int i = 0; i < 8; i++) {
+            positions[3 * i] = x + ((i & 1) != 0 ? half : -half);
+            positions[3 * i + 1] = y + ((i & 2) != 0 ? half : -half);
+            positions[3 * i + 2] = z + ((i & 4) != 0 ? half : -half);
+        }
+        return new BoundingVolume(positions);
+    }
+}
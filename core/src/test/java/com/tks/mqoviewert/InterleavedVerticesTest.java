@@ -0,0 +1,110 @@
+package com.tks.mqoviewert;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class InterleavedVerticesTest {
+
+    // 符号付き正規化整数は、GLの戻し方で半刻み(1 / (2 * max + 1))以内に戻り、±1はちょうど戻る
+    @Test
+    public void snormRoundTrip() {
+        int[] maxes = {127, 32767};
+        Random random = new Random(7);
+        for (int m = 0; m < maxes.length; m++) {
+            int max = maxes[m];
+            double bound = 1.0 / (2 * max + 1) + 1e-7;
+            assertEquals(1.0, InterleavedVertices.decodeSnorm(InterleavedVertices.encodeSnorm(1.0f, max), max), 0.0);
+            assertEquals(-1.0, InterleavedVertices.decodeSnorm(InterleavedVertices.encodeSnorm(-1.0f, max), max), 0.0);
+            assertEquals(max, InterleavedVertices.encodeSnorm(2.0f, max));
+            assertEquals(-max - 1, InterleavedVertices.encodeSnorm(-2.0f, max));
+            for (int i = 0; i < 10000; i++) {
+                float value = random.nextFloat() * 2.0f - 1.0f;
+                double decoded = InterleavedVertices.decodeSnorm(InterleavedVertices.encodeSnorm(value, max), max);
+                assertTrue(value + " " + max, Math.abs(decoded - value) <= bound);
+            }
+        }
+    }
+
+    // 圧縮した座標と法線を戻した誤差は、報告した最大誤差と一致し、量子化の刻みに収まる
+    @Test
+    public void compressedErrorMatchesReport() {
+        int n = 5000;
+        float[] vertices = new float[3 * n], normals = new float[3 * n], colors = new float[4 * n], uvs = new float[2 * n];
+        Random random = new Random(8);
+        for (int i = 0; i < n; i++) {
+            vertices[3 * i] = random.nextFloat() * 200 - 100;
+            vertices[3 * i + 1] = random.nextFloat() * 50;
+            vertices[3 * i + 2] = random.nextFloat() * 10 - 300;
+            for (int k = 0; k < 3; k++) normals[3 * i + k] = (float)random.nextGaussian() * 3;  // 長さは1でなくてよい
+        }
+        normals[0] = 0; normals[1] = 0; normals[2] = -1;     // 八面体の頂点と、折り返しの境目
+        normals[3] = 1; normals[4] = 0; normals[5] = 0;
+        normals[6] = 0.5f; normals[7] = -0.5f; normals[8] = 0;
+        MQODoc.DrawingInfo info = new MQODoc.DrawingInfo(vertices, normals, colors, uvs, new int[0], null);
+
+        InterleavedVertices packed = InterleavedVertices.pack(info, true);
+        ByteBuffer buffer = packed.buffer;
+        double maxPositionError = 0.0, maxNormalError = 0.0;
+        for (int i = 0; i < n; i++) {
+            int p = packed.stride * i;
+            for (int k = 0; k < 3; k++) {
+                // シェーダと同じく、正規化unsigned shortを倍率とずれで戻す
+                float decoded = ((buffer.getShort(p + 2 * k) & 0xFFFF) / 65535.0f) * packed.positionScale[k] + packed.positionBias[k];
+                maxPositionError = Math.max(maxPositionError, Math.abs(decoded - vertices[3 * i + k]));
+                assertTrue(Math.abs(decoded - vertices[3 * i + k]) <= packed.positionScale[k] / 65535.0f * 0.5f + 1e-4f);
+            }
+            double[] normal = decodeOctahedral(buffer.getShort(p + packed.normalOffset), buffer.getShort(p + packed.normalOffset + 2));
+            maxNormalError = Math.max(maxNormalError, angle(normals, 3 * i, normal));
+        }
+        assertEquals(maxPositionError, packed.maxPositionError, 1e-6);
+        assertEquals(maxNormalError, packed.maxNormalError, 1e-3);
+        assertTrue(packed.maxNormalError < 0.01f);    // 16ビットの八面体なら約0.005度
+        assertEquals(20, packed.stride);
+    }
+
+    // 圧縮しない形式の法線(正規化byte)の誤差は1度未満
+    @Test
+    public void byteNormalErrorIsBounded() {
+        int n = 5000;
+        float[] normals = new float[3 * n];
+        Random random = new Random(9);
+        for (int i = 0; i < 3 * n; i++) normals[i] = (float)random.nextGaussian();
+        MQODoc.DrawingInfo info = new MQODoc.DrawingInfo(new float[3 * n], normals, new float[4 * n], new float[2 * n], new int[0], null);
+
+        InterleavedVertices packed = InterleavedVertices.pack(info);
+        assertEquals(0.0f, packed.maxPositionError, 0.0f);
+        assertTrue(packed.maxNormalError > 0.0f && packed.maxNormalError < 1.0f);
+        for (int i = 0; i < n; i++) {
+            int p = packed.stride * i + packed.normalOffset;
+            double[] normal = new double[3];
+            for (int k = 0; k < 3; k++) normal[k] = InterleavedVertices.decodeSnorm(packed.buffer.get(p + k), 127);
+            assertTrue(angle(normals, 3 * i, normal) <= packed.maxNormalError + 1e-3);
+        }
+    }
+
+    // 八面体に投影した2成分から、シェーダと同じ方法で法線を戻す
+    private static double[] decodeOctahedral(short qx, short qy) {
+        double x = InterleavedVertices.decodeSnorm(qx, 32767), y = InterleavedVertices.decodeSnorm(qy, 32767);
+        double z = 1.0 - Math.abs(x) - Math.abs(y);
+        if (z < 0) {
+            double ox = (1.0 - Math.abs(y)) * (x >= 0.0 ? 1.0 : -1.0);
+            double oy = (1.0 - Math.abs(x)) * (y >= 0.0 ? 1.0 : -1.0);
+            x = ox;
+            y = oy;
+        }
+        return new double[]{x, y, z};
+    }
+
+    // 元の法線と戻した法線のなす角(度)
+    private static double angle(float[] normals, int offset, double[] n) {
+        double ax = normals[offset], ay = normals[offset + 1], az = normals[offset + 2];
+        double dot = ax * n[0] + ay * n[1] + az * n[2];
+        double length = Math.sqrt(ax * ax + ay * ay + az * az) * Math.sqrt(n[0] * n[0] + n[1] * n[1] + n[2] * n[2]);
+        return Math.toDegrees(Math.acos(Math.min(1.0, dot / length)));
+    }
+}
@@ -0,0 +1,122 @@
+package com.tks.mqoviewert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MQOCacheTest {
+    private static final String NAME = "model.mqo";
+    private static final int OPTIONS = MQOCache.options(true, false, false, false, null);
+
+    private File mDir;
+    private MQOCache mCache;
+    private File mFile;
+    private byte[] mHash;
+    private List<MQODoc.DrawingInfo> mDrawingInfos;
+
+    @Before
+    public void setUp() throws Exception {
+        this.mDir = File.createTempFile("mqocache", "");
+        this.mDir.delete();
+        this.mCache = new MQOCache(this.mDir);
+
+        ByteBuffer model = TestModels.generate(2, 8, 2);
+        MQODoc doc = new MQODoc();
+        doc.setWeldVertices(true);
+        assertTrue(doc.parse(model.duplicate()));
+        this.mDrawingInfos = doc.getDrawingInfos();
+        this.mHash = MQOCache.hash(model);
+        this.mCache.write(NAME, this.mHash, OPTIONS, this.mDrawingInfos);
+        this.mFile = new File(this.mDir, NAME + ".mqoc");
+        assertTrue(this.mFile.isFile());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = this.mDir.listFiles();
+        if (files != null) for (File file : files) file.delete();
+        this.mDir.delete();
+    }
+
+    // 書き込んだ描画情報がそのまま読み込める
+    @Test
+    public void roundTrip() {
+        assertTrue(MQOCache.isUpToDate(this.mFile, this.mHash, OPTIONS));
+        List<MQODoc.DrawingInfo> read = this.mCache.read(NAME, this.mHash, OPTIONS);
+        assertNotNull(read);
+        MQODocTest.assertSameDrawingInfos(this.mDrawingInfos, read);
+    }
+
+    // 元ファイルのハッシュか作り方が違えば古いキャッシュとして削除する
+    @Test
+    public void rejectsStaleCache() {
+        byte[] otherHash = this.mHash.clone();
+        otherHash[0] ^= 1;
+        assertFalse(MQOCache.isUpToDate(this.mFile, otherHash, OPTIONS));
+        assertFalse(MQOCache.isUpToDate(this.mFile, this.mHash, OPTIONS ^ 1));
+        assertNull(this.mCache.read(NAME, otherHash, OPTIONS));
+        assertFalse(this.mFile.exists());
+    }
+
+    // どのバイトが壊れていても読み込まず、ファイルを削除する
+    @Test
+    public void rejectsCorruptCache() throws IOException {
+        byte[] good = readFile(this.mFile);
+        Random random = new Random(3);
+        for (int offset = 0; offset < good.length; offset += (offset < 256 ? 1 : 1 + random.nextInt(64))) {
+            byte[] bad = good.clone();
+            bad[offset] ^= (byte)(1 + random.nextInt(255));
+            writeFile(this.mFile, bad);
+            assertNull("offset " + offset, this.mCache.read(NAME, this.mHash, OPTIONS));
+            assertFalse("offset " + offset, this.mFile.exists());
+        }
+    }
+
+    // 途中で切れたキャッシュは古いものとして扱い、読み込まない
+    @Test
+    public void rejectsTruncatedCache() throws IOException {
+        byte[] good = readFile(this.mFile);
+        int[] lengths = {0, 3, 16, good.length / 2, good.length - 4, good.length - 1};
+        for (int i = 0; i < lengths.length; i++) {
+            writeFile(this.mFile, Arrays.copyOf(good, lengths[i]));
+            assertFalse("length " + lengths[i], MQOCache.isUpToDate(this.mFile, this.mHash, OPTIONS));
+            assertNull("length " + lengths[i], this.mCache.read(NAME, this.mHash, OPTIONS));
+            assertFalse("length " + lengths[i], this.mFile.exists());
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] bytes = new byte[(int)file.length()];
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            int length = 0, n;
+            while (length < bytes.length && (n = inputStream.read(bytes, length, bytes.length - length)) > 0) length += n;
+        } finally {
+            inputStream.close();
+        }
+        return bytes;
+    }
+
+    private static void writeFile(File file, byte[] bytes) throws IOException {
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(bytes);
+        } finally {
+            outputStream.close();
+        }
+    }
+}
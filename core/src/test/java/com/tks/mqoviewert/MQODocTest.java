@@ -0,0 +1,96 @@
+package com.tks.mqoviewert;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MQODocTest {
+
+    // parseFloat()はFloat.parseFloat()と同じ値になる
+    @Test
+    public void parseFloatMatchesFloatParseFloat() {
+        String[] fixed = {"0", "-0", "1", "-1", "+1", "1.000", "-10.8909", "0.5", ".5", "-.25", "123456.7", "1.5e-3", "-2E+5",
+                          "3.4028235e38", "1e-40", "0.00000000123", "16777217", "-999999.999999"};
+        for (int i = 0; i < fixed.length; i++) assertParseFloat(fixed[i]);
+
+        Random random = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            float value = (float)((random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(12) - 4));
+            assertParseFloat(Float.toString(value));
+            assertParseFloat(String.format(java.util.Locale.ROOT, "%." + random.nextInt(8) + "f", value));
+        }
+    }
+
+    // parseInt()はInteger.parseInt()と同じ値になる
+    @Test
+    public void parseIntMatchesIntegerParseInt() {
+        String[] fixed = {"0", "-0", "+7", "-1", "65535", "2147483647", "-2147483648"};
+        for (int i = 0; i < fixed.length; i++) assertEquals(fixed[i], Integer.parseInt(fixed[i]), parseInt(fixed[i]));
+
+        Random random = new Random(2);
+        for (int i = 0; i < 10000; i++) {
+            String s = Integer.toString(random.nextInt());
+            assertEquals(s, Integer.parseInt(s), parseInt(s));
+        }
+    }
+
+    // 複数スレッドで解析しても、1スレッドで解析した場合と同じ描画情報になる(CPUが1つの環境では両方とも1スレッドになる)
+    @Test
+    public void parallelParseMatchesSerialParse() throws Exception {
+        ByteBuffer model = TestModels.generate(8, 20, 4);
+
+        MQODoc serial = new MQODoc();
+        serial.setParallel(false);
+        assertTrue(serial.parse(model.duplicate()));
+        MQODoc parallel = new MQODoc();
+        parallel.setParallel(true);
+        assertTrue(parallel.parse(model.duplicate()));
+
+        assertEquals(serial.getObjects().size(), parallel.getObjects().size());
+        assertSameDrawingInfos(serial.getDrawingInfos(), parallel.getDrawingInfos());
+    }
+
+    // 文字列(改行は"\n")から解析しても、バッファ(改行は"\r\n")から解析した場合と同じ描画情報になる
+    @Test
+    public void stringParseMatchesBufferParse() throws Exception {
+        ByteBuffer model = TestModels.generate(2, 10, 2);
+        byte[] bytes = new byte[model.remaining()];
+        model.duplicate().get(bytes);
+
+        MQODoc fromString = new MQODoc();
+        assertTrue(fromString.parse(new String(bytes, "US-ASCII").replace("\r\n", "\n")));
+        assertSameDrawingInfos(TestModels.parse(model).getDrawingInfos(), fromString.getDrawingInfos());
+    }
+
+    static void assertSameDrawingInfos(List<MQODoc.DrawingInfo> expected, List<MQODoc.DrawingInfo> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            MQODoc.DrawingInfo a = expected.get(i), b = actual.get(i);
+            assertArrayEquals(a.vertices, b.vertices, 0.0f);
+            assertArrayEquals(a.normals, b.normals, 0.0f);
+            assertArrayEquals(a.colors, b.colors, 0.0f);
+            assertArrayEquals(a.uvs, b.uvs, 0.0f);
+            assertArrayEquals(a.indices, b.indices);
+            assertEquals(a.texture, b.texture);
+            assertEquals(a.object, b.object);
+            assertEquals(a.lod, b.lod);
+        }
+    }
+
+    private static void assertParseFloat(String s) {
+        // 前後に余分な文字を置き、範囲だけを解析することも確かめる
+        String str = "(" + s + " ";
+        assertEquals(s, Float.parseFloat(s), MQODoc.parseFloat(str, 1, 1 + s.length()), 0.0f);
+    }
+
+    private static int parseInt(String s) {
+        String str = " " + s + ")";
+        return MQODoc.parseInt(str, 1, 1 + s.length());
+    }
+}
@@ -0,0 +1,107 @@
+package com.tks.mqoviewert;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class MQOLineReaderTest {
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    // バッファより長い行も、改行("\r\n"、"\n")を除いてそのまま切り出す
+    @Test
+    public void readsLinesLongerThanBuffer() throws IOException {
+        List<String> lines = Arrays.asList("Metasequoia Document", "", repeat("1.2345 ", 30000), "\"日本語\" tex(\"a.png\")",
+                                           repeat("x", 3 * MQOLineReader.DEFAULT_BUFFER_SIZE), "Eof");
+        byte[] bytes = join(lines, "\r\n").getBytes(CHARSET);
+
+        assertEquals(lines, readAll(new MQOLineReader(new ByteArrayInputStream(bytes))));
+        assertEquals(lines, readAll(new MQOLineReader(new ByteArrayInputStream(bytes), 7)));
+        assertEquals(lines, readAll(new MQOLineReader(Channels.newChannel(new ByteArrayInputStream(bytes)), 16)));
+        assertEquals(lines, readAll(new MQOLineReader(new TrickleInputStream(bytes), 5)));
+        assertEquals(lines, readAll(new MQOLineReader(ByteBuffer.wrap(bytes))));
+    }
+
+    // 最後の行に改行がなくても読み込み、末尾の改行の後には空の行を返さない
+    @Test
+    public void handlesLastLine() {
+        assertEquals(Arrays.asList("a", "b"), readAll(new MQOLineReader(new ByteArrayInputStream("a\nb".getBytes(CHARSET)), 4)));
+        assertEquals(Arrays.asList("a", "b"), readAll(new MQOLineReader(new ByteArrayInputStream("a\nb\n".getBytes(CHARSET)), 4)));
+        assertEquals(Arrays.asList("", ""), readAll(new MQOLineReader(ByteBuffer.wrap("\n\r\n".getBytes(CHARSET)))));
+        assertEquals(new ArrayList<String>(), readAll(new MQOLineReader(new ByteArrayInputStream(new byte[0]))));
+    }
+
+    // 読み込み元の例外は読み込みの終わりとして扱い、getException()で取得できる
+    @Test
+    public void keepsReadException() {
+        MQOLineReader reader = new MQOLineReader(new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("broken");
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                throw new IOException("broken");
+            }
+        });
+        assertNull(reader.readLine());
+        assertNotNull(reader.getException());
+    }
+
+    // チャンクを対応する'}'の行まで読み飛ばす
+    @Test
+    public void skipsChunk() {
+        byte[] bytes = "Object \"a\" {\r\n\tvertex 1 {\r\n\t\t0 0 0\r\n\t}\r\n}\r\nEof\r\n".getBytes(CHARSET);
+        MQOLineReader reader = new MQOLineReader(ByteBuffer.wrap(bytes));
+        assertEquals("Object \"a\" {", reader.readLine().toString());
+        ByteBuffer chunk = reader.skipChunk();
+        byte[] skipped = new byte[chunk.remaining()];
+        chunk.get(skipped);
+        assertEquals("\tvertex 1 {\r\n\t\t0 0 0\r\n\t}\r\n}\r\n", new String(skipped, CHARSET));
+        assertEquals("Eof", reader.readLine().toString());
+        assertNull(reader.readLine());
+    }
+
+    // 1回に少しずつしか返さないストリーム
+    private static class TrickleInputStream extends ByteArrayInputStream {
+        TrickleInputStream(byte[] bytes) {
+            super(bytes);
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, 3));
+        }
+    }
+
+    private static List<String> readAll(MQOLineReader reader) {
+        List<String> ret = new ArrayList<String>();
+        CharSequence line;
+        while ((line = reader.readLine()) != null) ret.add(line.toString());
+        return ret;
+    }
+
+    private static String repeat(String s, int count) {
+        StringBuilder sb = new StringBuilder(s.length() * count);
+        for (int i = 0; i < count; i++) sb.append(s);
+        return sb.toString();
+    }
+
+    private static String join(List<String> lines, String separator) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines.size(); i++) sb.append(lines.get(i)).append(separator);
+        return sb.toString();
+    }
+}
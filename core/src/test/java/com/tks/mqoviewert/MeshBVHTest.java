@@ -0,0 +1,105 @@
+package com.tks.mqoviewert;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MeshBVHTest {
+
+    // 全部の三角形を調べた場合と同じ面、同じ距離で交わる
+    @Test
+    public void matchesBruteForce() throws Exception {
+        List<MQODoc.MQOObject> objects = TestModels.parse(TestModels.generate(3, 16, 2)).getObjects();
+        MeshBVH bvh = new MeshBVH(objects);
+        MeshBVH.Hit hit = new MeshBVH.Hit();
+        float[] expected = new float[1];
+
+        Random random = new Random(4);
+        int hits = 0;
+        for (int i = 0; i < 2000; i++) {
+            // 模型の周りから、模型の範囲内の点に向けてレイを飛ばす(一部は外す)
+            float[] origin = {random.nextFloat() * 400 - 100, random.nextFloat() * 200 - 100, random.nextFloat() * 400 - 100};
+            float[] target = {random.nextFloat() * 200, random.nextFloat() * 80 - 40, random.nextFloat() * 200 - 20};
+            float[] dir = {target[0] - origin[0], target[1] - origin[1], target[2] - origin[2]};
+
+            boolean found = bruteForce(objects, origin, dir, expected);
+            assertEquals("ray " + i, found, bvh.intersect(origin, dir, hit));
+            if (!found) continue;
+            hits++;
+            assertEquals("ray " + i, expected[0], hit.distance, 0.0f);
+            for (int k = 0; k < 3; k++) assertEquals(origin[k] + dir[k] * expected[0], hit.point[k], 1e-3f);
+        }
+        assertTrue(hits > 100);
+    }
+
+    // 極端に偏った配置でも木が深くなりすぎず、交わる面が見つかる
+    @Test
+    public void handlesDegenerateChain() {
+        // x = -2^k に並べた三角形(中央で分けると片側に1つずつしか分かれない)
+        MQODoc doc = new MQODoc();
+        MQODoc.MQOObject obj = doc.new MQOObject();
+        int n = 126;
+        obj.numVertices = 3 * n;
+        obj.positions = new float[9 * n];
+        obj.numFaces = n;
+        obj.faceOffsets = new int[n + 1];
+        obj.indices = new int[3 * n];
+        for (int k = 0; k < n; k++) {
+            float x = -(float)Math.pow(2, k);
+            float[] v = {x, -1, -1, x, 1, -1, x, 0, 1};
+            System.arraycopy(v, 0, obj.positions, 9 * k, 9);
+            for (int j = 0; j < 3; j++) obj.indices[3 * k + j] = 3 * k + j;
+            obj.faceOffsets[k + 1] = 3 * k + 3;
+        }
+
+        MeshBVH bvh = new MeshBVH(Collections.singletonList(obj));
+        MeshBVH.Hit hit = new MeshBVH.Hit();
+        assertTrue(bvh.intersect(new float[]{1, 0, 0}, new float[]{-1, 0, 0}, hit));
+        assertEquals(0, hit.face);
+        assertEquals(2.0f, hit.distance, 0.0f);
+        assertFalse(bvh.intersect(new float[]{1, 0, 0}, new float[]{1, 0, 0}, hit));
+    }
+
+    // 面を(0, 1, 2)、(0, 2, 3)...の三角形に分けて全部調べる(MeshBVHと同じMoller-Trumboreの方法)
+    private static boolean bruteForce(List<MQODoc.MQOObject> objects, float[] origin, float[] dir, float[] distance) {
+        float best = Float.POSITIVE_INFINITY;
+        for (int o = 0; o < objects.size(); o++) {
+            MQODoc.MQOObject obj = objects.get(o);
+            for (int f = 0; f < obj.numFaces; f++) {
+                int start = obj.faceOffsets[f];
+                int n = obj.faceOffsets[f + 1] - start;
+                for (int k = 1; k + 1 < n; k++) {
+                    float d = hitTriangle(obj.positions, 3 * obj.indices[start], 3 * obj.indices[start + k],
+                                          3 * obj.indices[start + k + 1], origin, dir);
+                    if (d >= 0 && d < best) best = d;
+                }
+            }
+        }
+        distance[0] = best;
+        return best != Float.POSITIVE_INFINITY;
+    }
+
+    private static float hitTriangle(float[] p, int a, int b, int c, float[] origin, float[] dir) {
+        float dx = dir[0], dy = dir[1], dz = dir[2];
+        float e1x = p[b] - p[a], e1y = p[b + 1] - p[a + 1], e1z = p[b + 2] - p[a + 2];
+        float e2x = p[c] - p[a], e2y = p[c + 1] - p[a + 1], e2z = p[c + 2] - p[a + 2];
+        float px = dy * e2z - dz * e2y, py = dz * e2x - dx * e2z, pz = dx * e2y - dy * e2x;
+        float det = e1x * px + e1y * py + e1z * pz;
+        if (det == 0.0f) return -1.0f;
+        float inv = 1.0f / det;
+        float sx = origin[0] - p[a], sy = origin[1] - p[a + 1], sz = origin[2] - p[a + 2];
+        float u = (sx * px + sy * py + sz * pz) * inv;
+        if (u < 0.0f || u > 1.0f) return -1.0f;
+        float qx = sy * e1z - sz * e1y, qy = sz * e1x - sx * e1z, qz = sx * e1y - sy * e1x;
+        float v = (dx * qx + dy * qy + dz * qz) * inv;
+        if (v < 0.0f || u + v > 1.0f) return -1.0f;
+        float d = (e2x * qx + e2y * qy + e2z * qz) * inv;
+        return d >= 0.0f ? d : -1.0f;
+    }
+}
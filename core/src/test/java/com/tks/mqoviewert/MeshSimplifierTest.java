@@ -0,0 +1,40 @@
+package com.tks.mqoviewert;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MeshSimplifierTest {
+
+    // 三角形数は目標近くまで減り、面はすべて三角形で元の頂点を指す
+    @Test
+    public void reducesTriangles() throws Exception {
+        MQODoc doc = TestModels.parse(TestModels.generate(1, 24, 1));
+        MQODoc.MQOObject src = doc.getObjects().get(0);
+        int before = MeshSimplifier.countTriangles(src);
+        int target = before / 4;
+
+        MQODoc.MQOObject dst = doc.new MQOObject();
+        MeshSimplifier.simplify(src, target, dst);
+        int after = MeshSimplifier.countTriangles(dst);
+        assertTrue(after >= target);
+        assertTrue("after " + after, after <= target * 3 / 2);
+        for (int f = 0; f < dst.numFaces; f++) assertEquals(3, dst.faceOffsets[f + 1] - dst.faceOffsets[f]);
+        for (int i = 0; i < dst.faceOffsets[dst.numFaces]; i++)
+            assertTrue(dst.indices[i] >= 0 && dst.indices[i] < dst.numVertices);
+    }
+
+    // 目標が元の三角形数以上なら減らさない
+    @Test
+    public void keepsTrianglesAboveTarget() throws Exception {
+        MQODoc doc = TestModels.parse(TestModels.generate(1, 8, 1));
+        List<MQODoc.MQOObject> objects = doc.getObjects();
+        MQODoc.MQOObject src = objects.get(0);
+        MQODoc.MQOObject dst = doc.new MQOObject();
+        MeshSimplifier.simplify(src, Integer.MAX_VALUE, dst);
+        assertEquals(MeshSimplifier.countTriangles(src), MeshSimplifier.countTriangles(dst));
+    }
+}
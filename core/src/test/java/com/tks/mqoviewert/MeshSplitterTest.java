@@ -0,0 +1,75 @@
+package com.tks.mqoviewert;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MeshSplitterTest {
+
+    // 65536頂点を超える描画情報は、どれも65536頂点以下に分けられ、三角形は同じ順番で残る
+    @Test
+    public void splitsToShortIndexLimit() {
+        int grid = 300;     // 301×301 = 90601頂点の格子
+        MQODoc.DrawingInfo src = gridDrawingInfo(grid);
+        assertTrue(src.vertices.length / 3 > 65536);
+
+        List<MQODoc.DrawingInfo> out = new ArrayList<MQODoc.DrawingInfo>();
+        MeshSplitter.split(src, 65536, out);
+        assertTrue(out.size() > 1);
+
+        int t = 0;
+        for (int i = 0; i < out.size(); i++) {
+            MQODoc.DrawingInfo info = out.get(i);
+            int n = info.vertices.length / 3;
+            assertTrue(n <= 65536);
+            assertEquals(2 * n, info.uvs.length);
+            assertEquals(4 * n, info.colors.length);
+            assertEquals(src.texture, info.texture);
+            for (int j = 0; j < info.indices.length; j++) assertTrue(info.indices[j] >= 0 && info.indices[j] < n);
+            for (int j = 0; j < info.indices.length / 3; j++, t++)
+                assertArrayEquals(TestModels.triangle(src, t), TestModels.triangle(info, j), 0.0f);
+        }
+        assertEquals(src.indices.length / 3, t);
+    }
+
+    // 頂点数が上限以下なら分けずにそのまま返す
+    @Test
+    public void keepsSmallDrawingInfo() {
+        MQODoc.DrawingInfo src = gridDrawingInfo(4);
+        List<MQODoc.DrawingInfo> out = new ArrayList<MQODoc.DrawingInfo>();
+        MeshSplitter.split(src, 65536, out);
+        assertEquals(1, out.size());
+        assertSame(src, out.get(0));
+    }
+
+    // 頂点を共有する格子の描画情報を作る
+    private static MQODoc.DrawingInfo gridDrawingInfo(int grid) {
+        int n = (grid + 1) * (grid + 1);
+        float[] vertices = new float[3 * n], normals = new float[3 * n], colors = new float[4 * n], uvs = new float[2 * n];
+        for (int y = 0, v = 0; y <= grid; y++) {
+            for (int x = 0; x <= grid; x++, v++) {
+                vertices[3 * v] = x;
+                vertices[3 * v + 2] = y;
+                normals[3 * v + 1] = 1;
+                colors[4 * v + 3] = 1;
+                uvs[2 * v] = x / (float)grid;
+                uvs[2 * v + 1] = y / (float)grid;
+            }
+        }
+        int[] indices = new int[6 * grid * grid];
+        for (int y = 0, i = 0; y < grid; y++) {
+            for (int x = 0; x < grid; x++) {
+                int a = y * (grid + 1) + x, b = a + 1, c = a + grid + 2, d = a + grid + 1;
+                indices[i++] = a; indices[i++] = b; indices[i++] = c;
+                indices[i++] = a; indices[i++] = c; indices[i++] = d;
+            }
+        }
+        return new MQODoc.DrawingInfo(vertices, normals, colors, uvs, indices, "tex.png");
+    }
+}
@@ -0,0 +1,43 @@
+package com.tks.mqoviewert;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MeshWelderTest {
+
+    // 頂点は減り、三角形の頂点座標は元のまま残る
+    @Test
+    public void weldsSharedVertices() throws Exception {
+        List<MQODoc.DrawingInfo> drawingInfos = TestModels.parse(TestModels.generate(3, 12, 2)).getDrawingInfos();
+        MeshWelder welder = new MeshWelder();
+        for (int i = 0; i < drawingInfos.size(); i++) {
+            MQODoc.DrawingInfo src = drawingInfos.get(i);
+            MQODoc.DrawingInfo dst = welder.weld(src);
+            int n = dst.vertices.length / 3;
+            assertTrue(n < src.vertices.length / 3);
+            assertEquals(src.indices.length, dst.indices.length);
+            for (int j = 0; j < dst.indices.length; j++) assertTrue(dst.indices[j] >= 0 && dst.indices[j] < n);
+            for (int t = 0; t < src.indices.length / 3; t++)
+                assertArrayEquals(TestModels.triangle(src, t), TestModels.triangle(dst, t), 0.0f);
+        }
+        assertTrue(welder.getOutputVertices() < welder.getInputVertices());
+    }
+
+    // 座標が同じでも法線かUVが違う頂点はまとめない
+    @Test
+    public void keepsDistinctAttributes() {
+        float[] vertices = {0, 0, 0, 1, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 1, 0};
+        float[] normals = {0, 0, 1, 0, 0, 1, 0, 0, 1, 0, 0, 1, 0, 0, 1, 0, 0, 1};
+        float[] colors = new float[24];
+        float[] uvs = {0, 0, 1, 0, 0, 1, 0, 0, 1, 0, 0.5f, 1};   // 最後の頂点だけUVが違う
+        MQODoc.DrawingInfo src = new MQODoc.DrawingInfo(vertices, normals, colors, uvs, new int[]{0, 1, 2, 3, 4, 5}, null);
+        MQODoc.DrawingInfo dst = new MeshWelder().weld(src);
+        assertEquals(4, dst.vertices.length / 3);
+        assertArrayEquals(new int[]{0, 1, 2, 0, 1, 3}, dst.indices);
+    }
+}
@@ -0,0 +1,63 @@
+package com.tks.mqoviewert;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RenderQueueTest {
+
+    // 不透明なものはシェーダ、テクスチャ、手前から奥の順、半透明なものはその後に奥から手前の順に並ぶ
+    @Test
+    public void sortsByStateThenDepth() {
+        int n = 1000;
+        int[] programs = new int[n], textures = new int[n];
+        float[] depths = new float[n];
+        boolean[] translucent = new boolean[n];
+        Random random = new Random(5);
+        RenderQueue queue = new RenderQueue();
+        queue.clear();
+        for (int i = 0; i < n; i++) {
+            programs[i] = random.nextInt(RenderQueue.MAX_PROGRAMS);
+            textures[i] = random.nextInt(8);
+            depths[i] = random.nextFloat();
+            translucent[i] = random.nextInt(4) == 0;
+            queue.add(i, programs[i], textures[i], depths[i], translucent[i]);
+        }
+        queue.sort();
+        assertEquals(n, queue.size());
+
+        boolean[] seen = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            int index = queue.getIndex(i);
+            assertFalse(seen[index]);
+            seen[index] = true;
+            assertEquals(programs[index], queue.getProgram(i));
+            assertEquals(textures[index], queue.getTexture(i));
+            assertEquals(translucent[index], queue.isTranslucent(i));
+            if (i == 0) continue;
+
+            int prev = queue.getIndex(i - 1);
+            assertTrue(!translucent[prev] || translucent[index]);
+            if (translucent[prev] != translucent[index]) continue;
+            if (translucent[index]) {
+                assertTrue(depths[prev] >= depths[index] - 1e-6f);
+            } else if (programs[prev] == programs[index] && textures[prev] == textures[index]) {
+                assertTrue(depths[prev] <= depths[index] + 1e-6f);
+            } else {
+                assertTrue(programs[prev] < programs[index] || (programs[prev] == programs[index] && textures[prev] < textures[index]));
+            }
+        }
+        // 不透明なものはシェーダとテクスチャの組み合わせごとに1回だけ切り替わる
+        assertTrue(queue.getStateChanges() < queue.getUnsortedStateChanges());
+    }
+
+    // 番号が範囲外なら例外を投げる
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOutOfRangeTexture() {
+        new RenderQueue().add(0, 0, RenderQueue.MAX_TEXTURES, 0.5f, false);
+    }
+}
@@ -0,0 +1,28 @@
+package com.tks.mqoviewert;
+
+import java.nio.ByteBuffer;
+
+/**
+ * テストで使うモデルと、描画情報を調べる関数
+ */
+public class TestModels {
+
+    // 波打った格子状のObjectを並べたMQOファイルの内容(SyntheticModels.generate())
+    public static ByteBuffer generate(int objects, int grid, int materials) {
+        return ByteBuffer.wrap(SyntheticModels.generate(objects, grid, materials));
+    }
+
+    // モデルを解析したMQODoc
+    public static MQODoc parse(ByteBuffer buffer) throws Exception {
+        MQODoc doc = new MQODoc();
+        if (!doc.parse(buffer.duplicate())) throw new IllegalStateException("parse failed");
+        return doc;
+    }
+
+    // 描画情報のi番目の三角形の頂点座標(9個)
+    public static float[] triangle(MQODoc.DrawingInfo info, int i) {
+        float[] ret = new float[9];
+        for (int k = 0; k < 3; k++) System.arraycopy(info.vertices, 3 * info.indices[3 * i + k], ret, 3 * k, 3);
+        return ret;
+    }
+}
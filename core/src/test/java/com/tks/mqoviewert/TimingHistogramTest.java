@@ -0,0 +1,61 @@
+package com.tks.mqoviewert;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimingHistogramTest {
+
+    // パーセンタイルは正確な値から約3%以内、最大値は正確
+    @Test
+    public void percentilesWithinBucketError() {
+        TimingHistogram histogram = new TimingHistogram();
+        Random random = new Random(6);
+        long[] values = new long[10000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long)(Math.exp(random.nextGaussian() * 2 + 14));   // 数μs～数十ms
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        assertEquals(values.length, histogram.getCount());
+        assertEquals(values[values.length - 1], histogram.getMax());
+        double[] percentiles = {1, 50, 90, 95, 99, 99.9, 100};
+        for (int i = 0; i < percentiles.length; i++) {
+            long exact = values[(int)Math.ceil(percentiles[i] / 100 * values.length) - 1];
+            long actual = histogram.getPercentile(percentiles[i]);
+            assertTrue("p" + percentiles[i], actual >= exact);
+            assertTrue("p" + percentiles[i], actual <= exact + exact / 32 + 1);
+        }
+    }
+
+    // 小さい値は1ns刻みで正確に数える
+    @Test
+    public void smallValuesAreExact() {
+        TimingHistogram histogram = new TimingHistogram();
+        for (int i = 0; i < 50; i++) histogram.record(i);
+        histogram.record(-5);   // 0として数える
+        assertEquals(51, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(0));
+        assertEquals(24, histogram.getPercentile(50));
+        assertEquals(49, histogram.getPercentile(100));
+    }
+
+    // reset()で全部消える
+    @Test
+    public void resetClearsCounts() {
+        TimingHistogram histogram = new TimingHistogram();
+        histogram.record(1000);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getPercentile(100));
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(50));
+    }
+}
@@ -0,0 +1,48 @@
+package com.tks.mqoviewert;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VertexCacheOptimizerTest {
+
+    // 並べ替えると頂点キャッシュのミスが減り、三角形の集まりは元と同じ
+    @Test
+    public void reducesMissesAndKeepsTriangles() throws Exception {
+        MQODoc doc = new MQODoc();
+        doc.setWeldVertices(true);
+        assertTrue(doc.parse(TestModels.generate(2, 32, 1)));
+        List<MQODoc.DrawingInfo> drawingInfos = doc.getDrawingInfos();
+
+        VertexCacheOptimizer optimizer = new VertexCacheOptimizer();
+        for (int i = 0; i < drawingInfos.size(); i++) {
+            MQODoc.DrawingInfo src = drawingInfos.get(i);
+            MQODoc.DrawingInfo dst = optimizer.optimize(src);
+            assertEquals(src.vertices.length, dst.vertices.length);
+            assertArrayEquals(sortedTriangles(src), sortedTriangles(dst));
+        }
+        assertTrue(optimizer.getMissesAfter() < optimizer.getMissesBefore());
+        assertTrue(optimizer.getMissesAfter() >= optimizer.getNumTriangles() / 2);  // 1三角形あたり0.5ミスが理論上の下限
+    }
+
+    // FIFOのキャッシュで、入っていない頂点だけを数える
+    @Test
+    public void countsMisses() {
+        int[] indices = {0, 1, 2, 2, 1, 3, 0, 1, 2};
+        assertEquals(4, VertexCacheOptimizer.countMisses(indices, 4, 16));
+        assertEquals(7, VertexCacheOptimizer.countMisses(indices, 4, 3));
+    }
+
+    // 三角形ごとの頂点座標を文字列にして並べる(頂点の並べ替えと三角形の順番に影響されない)
+    private static String[] sortedTriangles(MQODoc.DrawingInfo info) {
+        String[] ret = new String[info.indices.length / 3];
+        for (int t = 0; t < ret.length; t++) ret[t] = Arrays.toString(TestModels.triangle(info, t));
+        Arrays.sort(ret);
+        return ret;
+    }
+}